@@ -0,0 +1,74 @@
+/*
+ * Copyright © 2022 Dutch Arrow Software - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the Apache Software License 2.0.
+ *
+ * Created 14 Oct 2022.
+ */
+
+
+package nl.das.svnactions;
+
+/**
+ * A change in the repository, as reported by the {@link RevisionWatcher}.
+ */
+public final class ChangeEvent {
+
+	public enum Type {
+		/** A branch was created (env is the branch name) */
+		BRANCH_CREATED,
+		/** A branch was deleted (env is the branch name) */
+		BRANCH_DELETED,
+		/** The flows.json changed in the trunk or a branch */
+		FLOW_CHANGED,
+		/** One of the uibuilder index files changed in the trunk or a branch */
+		UI_CHANGED,
+		/** A SQL script was added to the trunk SQL path (env is null) */
+		SQL_SCRIPT_ADDED
+	}
+
+	private final Type type;
+	private final String env;
+	private final String path;
+	private final long revision;
+	private final String author;
+
+	public ChangeEvent(Type type, String env, String path, long revision, String author) {
+		this.type = type;
+		this.env = env;
+		this.path = path;
+		this.revision = revision;
+		this.author = author;
+	}
+
+	public Type getType() {
+		return this.type;
+	}
+
+	/**
+	 * @return "trunk", the branch name or null (SQL scripts)
+	 */
+	public String getEnv() {
+		return this.env;
+	}
+
+	/**
+	 * @return the changed path, relative to the repository root
+	 */
+	public String getPath() {
+		return this.path;
+	}
+
+	public long getRevision() {
+		return this.revision;
+	}
+
+	public String getAuthor() {
+		return this.author;
+	}
+
+	@Override
+	public String toString() {
+		return this.type + " " + (this.env == null ? "" : this.env + " ") + this.path + "@" + this.revision;
+	}
+}
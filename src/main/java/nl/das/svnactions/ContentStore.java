@@ -0,0 +1,275 @@
+/*
+ * Copyright © 2022 Dutch Arrow Software - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the Apache Software License 2.0.
+ *
+ * Created 14 Oct 2022.
+ */
+
+
+package nl.das.svnactions;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Persistent store for the content of file revisions. A file revision never changes, so once fetched it
+ * never has to be fetched from the server again, not even after a restart or while the server is down.<br><br>
+ * The store is content-addressed by the MD5 checksum that SVN keeps of every file revision, so identical
+ * content (e.g. the same flows.json in several branches) is stored once. It consists of two files:
+ * <ul>
+ * <li>objects.pack: the deflated contents, appended one after the other; every object is read through
+ * its own memory mapping, so the pack can grow beyond 2 GB</li>
+ * <li>objects.idx: an append-only text index with a line per object (O md5 offset length rawLength)
+ * and per file revision (P md5 path@revision)</li>
+ * </ul>
+ * A crash can only leave an incomplete last line or unreferenced bytes at the end of the pack; both are
+ * ignored on the next open.<br><br>
+ * Several processes (and several stores in one JVM) can share the directory: loading and appending
+ * are done under a lock on the pack, and before an append the index lines that others added are read.
+ */
+public class ContentStore implements AutoCloseable {
+	/** Guards the file lock within the JVM: a FileLock is held by the JVM, not by a thread */
+	private static final Map<Path, Object> LOCKS = new ConcurrentHashMap<>();
+
+	private Path dir;
+	private Object lock;
+	private FileChannel pack;
+	private FileChannel idx;
+	private long indexRead;
+	private Writer index;
+	private final Map<String, long[]> objects = new ConcurrentHashMap<>();
+	private final Map<String, String> paths = new ConcurrentHashMap<>();
+
+	/**
+	 * Open (or create) the store in the given directory
+	 *
+	 * @param dir directory of the store
+	 * @throws IOException
+	 */
+	public ContentStore(Path dir) throws IOException {
+		this.dir = dir;
+		this.lock = LOCKS.computeIfAbsent(dir.toAbsolutePath().normalize(), d -> new Object());
+		Files.createDirectories(dir);
+		this.pack = FileChannel.open(dir.resolve("objects.pack"), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		this.idx = FileChannel.open(dir.resolve("objects.idx"), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		this.index = new BufferedWriter(new OutputStreamWriter(Channels.newOutputStream(this.idx), StandardCharsets.UTF_8));
+		synchronized (this.lock) {
+			try (FileLock l = this.pack.lock()) {
+				load();
+				// A line left incomplete by a crash must not swallow the next line that is appended
+				if (this.indexRead < this.idx.size()) {
+					this.idx.position(this.idx.size());
+					this.index.write("\n");
+					this.index.flush();
+					this.indexRead = this.idx.size();
+				}
+			}
+		}
+	}
+
+	public Path getDirectory() {
+		return this.dir;
+	}
+
+	/**
+	 * Get the content of a file revision
+	 *
+	 * @param path URL of the file
+	 * @param revision revision number
+	 * @return the content or null if it is not in the store
+	 * @throws IOException
+	 */
+	public byte[] get(String path, long revision) throws IOException {
+		String md5 = this.paths.get(path + "@" + revision);
+		return md5 == null ? null : getObject(md5);
+	}
+
+	/**
+	 * Get the checksum of a file revision
+	 *
+	 * @param path URL of the file
+	 * @param revision revision number
+	 * @return the MD5 checksum or null if it is not in the store
+	 */
+	public String getChecksum(String path, long revision) {
+		return this.paths.get(path + "@" + revision);
+	}
+
+	/**
+	 * Get content by its checksum
+	 *
+	 * @param md5 MD5 checksum of the content
+	 * @return the content or null if it is not in the store
+	 * @throws IOException
+	 */
+	public byte[] getObject(String md5) throws IOException {
+		long[] obj = this.objects.get(md5);
+		if (obj == null) {
+			return null;
+		}
+		ByteBuffer src = this.pack.map(FileChannel.MapMode.READ_ONLY, obj[0], obj[1]);
+		byte[] content = new byte[(int) obj[2]];
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(src);
+			int n = 0;
+			while (n < content.length && !inflater.finished()) {
+				n += inflater.inflate(content, n, content.length - n);
+			}
+		} catch (DataFormatException e) {
+			throw new IOException("Corrupt object " + md5 + " in " + this.dir, e);
+		} finally {
+			inflater.end();
+		}
+		return content;
+	}
+
+	/**
+	 * Store the content of a file revision
+	 *
+	 * @param path URL of the file
+	 * @param revision revision number
+	 * @param checksum MD5 checksum as reported by SVN, or null
+	 * @param content the content
+	 * @return the MD5 checksum of the content
+	 * @throws IOException if the content does not match the checksum
+	 */
+	public String put(String path, long revision, String checksum, byte[] content) throws IOException {
+		return put(path, revision, checksum, ByteBuffer.wrap(content));
+	}
+
+	/**
+	 * Store the content of a file revision. The position of the buffer is not changed.
+	 *
+	 * @param path URL of the file
+	 * @param revision revision number
+	 * @param checksum MD5 checksum as reported by SVN, or null
+	 * @param content the content
+	 * @return the MD5 checksum of the content
+	 * @throws IOException if the content does not match the checksum
+	 */
+	public synchronized String put(String path, long revision, String checksum, ByteBuffer content) throws IOException {
+		String md5 = md5(content.duplicate());
+		if ((checksum != null) && !checksum.equalsIgnoreCase(md5)) {
+			throw new IOException("Checksum mismatch for " + path + "@" + revision + ": expected " + checksum + ", got " + md5);
+		}
+		synchronized (this.lock) {
+			try (FileLock l = this.pack.lock()) {
+				// Pick up what other processes added since the last look
+				load();
+				this.idx.position(this.idx.size());
+				if (!this.objects.containsKey(md5)) {
+					ByteBuffer deflated = deflate(content.duplicate());
+					int length = deflated.remaining();
+					long offset = this.pack.size();
+					while (deflated.hasRemaining()) {
+						this.pack.write(deflated, offset + deflated.position());
+					}
+					this.pack.force(false);
+					this.index.write("O " + md5 + " " + offset + " " + length + " " + content.remaining() + "\n");
+					this.objects.put(md5, new long[] {offset, length, content.remaining()});
+				}
+				if (!md5.equals(this.paths.get(path + "@" + revision))) {
+					this.index.write("P " + md5 + " " + path + "@" + revision + "\n");
+					this.paths.put(path + "@" + revision, md5);
+				}
+				this.index.flush();
+				this.indexRead = this.idx.size();
+			}
+		}
+		return md5;
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		this.index.close();
+		this.idx.close();
+		this.pack.close();
+	}
+
+	/**
+	 * Read the complete lines of the index that were not read yet. Call it under the lock.
+	 */
+	private void load() throws IOException {
+		long size = this.idx.size();
+		if (size <= this.indexRead) {
+			return;
+		}
+		long packSize = this.pack.size();
+		ByteBuffer buf = this.idx.map(FileChannel.MapMode.READ_ONLY, this.indexRead, size - this.indexRead);
+		int start = 0;
+		for (int i = 0; i < buf.limit(); i++) {
+			if (buf.get(i) != '\n') {
+				continue;
+			}
+			byte[] line = new byte[i - start];
+			buf.position(start);
+			buf.get(line);
+			start = i + 1;
+			String[] f = new String(line, StandardCharsets.UTF_8).split(" ", 3);
+			try {
+				if (f[0].equals("O")) {
+					String[] n = f[2].split(" ");
+					long[] obj = {Long.parseLong(n[0]), Long.parseLong(n[1]), Long.parseLong(n[2])};
+					if (obj[0] + obj[1] <= packSize) {
+						this.objects.put(f[1], obj);
+					}
+				} else if (f[0].equals("P") && this.objects.containsKey(f[1])) {
+					this.paths.put(f[2], f[1]);
+				}
+			} catch (RuntimeException e) {
+				// Line of an interrupted write
+			}
+		}
+		this.indexRead += start;
+	}
+
+	private static ByteBuffer deflate(ByteBuffer content) {
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		try {
+			byte[] buf = new byte[Math.max(64, content.remaining() / 2)];
+			deflater.setInput(content);
+			deflater.finish();
+			int n = 0;
+			while (!deflater.finished()) {
+				if (n == buf.length) {
+					byte[] b = new byte[buf.length * 2];
+					System.arraycopy(buf, 0, b, 0, n);
+					buf = b;
+				}
+				n += deflater.deflate(buf, n, buf.length - n);
+			}
+			return ByteBuffer.wrap(buf, 0, n);
+		} finally {
+			deflater.end();
+		}
+	}
+
+	private static String md5(ByteBuffer content) {
+		try {
+			MessageDigest md = MessageDigest.getInstance("MD5");
+			md.update(content);
+			return Utils.bytesToHex(md.digest()).toLowerCase();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright © 2022 Dutch Arrow Software - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the Apache Software License 2.0.
+ *
+ * Created 14 Oct 2022.
+ */
+
+
+package nl.das.svnactions;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * How far a branch is behind the trunk: the trunk revisions that changed the NodeRED files
+ * (flows.json or the uibuilder index files) and are not merged into the branch yet.
+ */
+public final class MergeLag {
+	private final String branch;
+	private final long latestMergedRevision;
+	private final List<Long> unmergedRevisions;
+
+	public MergeLag(String branch, long latestMergedRevision, List<Long> unmergedRevisions) {
+		this.branch = branch;
+		this.latestMergedRevision = latestMergedRevision;
+		this.unmergedRevisions = Collections.unmodifiableList(unmergedRevisions);
+	}
+
+	public String getBranch() {
+		return this.branch;
+	}
+
+	/**
+	 * @return the latest trunk revision that is in the branch (see {@link SvnActions#getLatestTrunkRevInBranch(boolean, String)})
+	 */
+	public long getLatestMergedRevision() {
+		return this.latestMergedRevision;
+	}
+
+	/**
+	 * @return the unmerged trunk revisions, oldest first
+	 */
+	public List<Long> getUnmergedRevisions() {
+		return this.unmergedRevisions;
+	}
+
+	public int getCount() {
+		return this.unmergedRevisions.size();
+	}
+
+	@Override
+	public String toString() {
+		return this.branch + ": " + getCount() + " behind " + this.unmergedRevisions;
+	}
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright © 2022 Dutch Arrow Software - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the Apache Software License 2.0.
+ *
+ * Created 14 Oct 2022.
+ */
+
+
+package nl.das.svnactions;
+
+/**
+ * A revision in which a NodeRED node in flows.json was added, changed or deleted, as kept by the {@link NodeIndex}.
+ */
+public final class NodeChange {
+	private final String nodeId;
+	private final long revision;
+	private final String author;
+	private final long date;
+	private final String hash;
+
+	public NodeChange(String nodeId, long revision, String author, long date, String hash) {
+		this.nodeId = nodeId;
+		this.revision = revision;
+		this.author = author;
+		this.date = date;
+		this.hash = hash;
+	}
+
+	public String getNodeId() {
+		return this.nodeId;
+	}
+
+	public long getRevision() {
+		return this.revision;
+	}
+
+	public String getAuthor() {
+		return this.author;
+	}
+
+	/**
+	 * @return the commit time in milliseconds since the epoch
+	 */
+	public long getDate() {
+		return this.date;
+	}
+
+	/**
+	 * @return the MD5 checksum of the JSON of the node in this revision, null if the node was deleted
+	 */
+	public String getHash() {
+		return this.hash;
+	}
+
+	public boolean isDeleted() {
+		return this.hash == null;
+	}
+
+	@Override
+	public String toString() {
+		return this.nodeId + "@" + this.revision + " " + this.author + (isDeleted() ? " (deleted)" : "");
+	}
+}
@@ -0,0 +1,650 @@
+/*
+ * Copyright © 2022 Dutch Arrow Software - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the Apache Software License 2.0.
+ *
+ * Created 14 Oct 2022.
+ */
+
+
+package nl.das.svnactions;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonException;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+import javax.json.JsonStructure;
+import javax.json.JsonValue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.tmatesoft.svn.core.SVNDirEntry;
+import org.tmatesoft.svn.core.SVNErrorCode;
+import org.tmatesoft.svn.core.SVNErrorMessage;
+import org.tmatesoft.svn.core.SVNException;
+import org.tmatesoft.svn.core.SVNProperties;
+import org.tmatesoft.svn.core.SVNRevisionProperty;
+import org.tmatesoft.svn.core.SVNURL;
+import org.tmatesoft.svn.core.internal.util.SVNDate;
+import org.tmatesoft.svn.core.internal.util.SVNPathUtil;
+import org.tmatesoft.svn.core.io.ISVNFileRevisionHandler;
+import org.tmatesoft.svn.core.io.SVNFileRevision;
+import org.tmatesoft.svn.core.io.SVNLocationSegment;
+import org.tmatesoft.svn.core.io.SVNRepository;
+import org.tmatesoft.svn.core.io.diff.SVNDeltaProcessor;
+import org.tmatesoft.svn.core.io.diff.SVNDiffWindow;
+
+/**
+ * Index of the NodeRED nodes in the flows.json of the trunk and the branches: per node the revision in which
+ * it was last changed, by whom, with the checksum of its JSON, and the history of all its changes.<br><br>
+ * An update asks the revision in which the flows.json of the environment last changed, and when that is not
+ * indexed yet streams the new revisions in one call (as deltas, so every revision is transferred once) and
+ * compares the nodes of every revision with the previous one. A branch starts from the index of the trunk (or
+ * the branch it was copied from) up to the copy revision, so only its own revisions are streamed. The first
+ * build of an environment can take long; {@link #isBuilding(String)} runs it in the background.
+ * The queries only read the index and never talk to the server.<br><br>
+ * Every environment has its own append-only text file in the index directory, with a line per node change
+ * (N revision md5|- nodeId) followed by a line per revision (R revision date author). The file of a branch
+ * starts with the revision that created it and the environment it was copied from (B createdRevision
+ * copyRevision env|-); the changes up to the copy revision are taken from the index of that environment and
+ * not stored again. A branch that was removed and created again under the same name is indexed again. A crash can only leave
+ * the changes of an incomplete revision at the end; they are cut off on the next load.<br><br>
+ * Properties:<br>
+ * <table>
+ * <tr><td>index.dir</td><td>Directory of the index (default ~/.svnactions/index)</td></tr>
+ * </table>
+ */
+public class NodeIndex implements AutoCloseable {
+	private static final Logger log = LoggerFactory.getLogger(NodeIndex.class);
+
+	private SvnSession session;
+	private Path dir;
+	private final Map<String, Env> envs = new ConcurrentHashMap<>();
+	private final Map<String, CompletableFuture<Long>> builds = new ConcurrentHashMap<>();
+	private ExecutorService builder;
+
+	/**
+	 * The index of the trunk or a branch. The maps are guarded by the monitor of the Env, only one update
+	 * at a time runs under the update lock.
+	 */
+	private static final class Env {
+		private final Path file;
+		private final Object updateLock = new Object();
+		private final Map<String, NodeChange> last = new HashMap<>();
+		private final Map<String, List<NodeChange>> history = new HashMap<>();
+		private long revision;
+		private Writer writer;
+		/** The environment the branch was copied from, null if the file holds the whole history */
+		private String base;
+		private long baseRevision;
+		private long created;
+
+		private Env(Path file) {
+			this.file = file;
+		}
+	}
+
+	public NodeIndex(SvnSession session) {
+		this(session, Paths.get(session.getProperties().getProperty("index.dir", System.getProperty("user.home") + "/.svnactions/index")));
+	}
+
+	public NodeIndex(SvnSession session, Path dir) {
+		this.session = session;
+		this.dir = dir;
+		this.builder = Executors.newSingleThreadExecutor(r -> {
+			Thread t = new Thread(r, "svn-node-index");
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	public Path getDirectory() {
+		return this.dir;
+	}
+
+	/**
+	 * Index the revisions of the flows.json of the environment that are not indexed yet.
+	 * When nothing changed this costs one call for the last changed revision of the flows.json, and for a branch
+	 * one more for the revision that created it. A branch that was never indexed (or was created again) first
+	 * brings the environment it was copied from up to date.
+	 *
+	 * @param env "trunk" or branchName
+	 * @return the revision the environment is indexed to
+	 * @throws SVNException
+	 * @throws IOException
+	 */
+	public long update(String env) throws SVNException, IOException {
+		Env e = env(env);
+		synchronized (e.updateLock) {
+			boolean trunk = env.equalsIgnoreCase("trunk");
+			SVNURL url = trunk ? this.session.getTrunkUrl() : this.session.getBranchBaseUrl().appendPath(env, false);
+			SVNRepository repository = this.session.repository(url);
+			SVNDirEntry entry = repository.info("flows.json", -1);
+			if (entry == null) {
+				throw SvnErrors.notFound(url.appendPath("flows.json", false), -1);
+			}
+			long changed = entry.getRevision();
+			long from;
+			synchronized (e) {
+				from = e.revision;
+			}
+			if (!trunk) {
+				List<SVNLocationSegment> segments = new ArrayList<>(repository.getLocationSegments("flows.json", -1, -1, 0));
+				segments.sort((a, b) -> Long.compare(b.getStartRevision(), a.getStartRevision()));
+				long created = segments.isEmpty() ? 0 : segments.get(0).getStartRevision();
+				synchronized (e) {
+					if ((from > 0) && (e.created != created)) {
+						// The branch was removed and created again under the same name
+						log.info("{} was created again in revision {}, its node index is rebuilt", env, created);
+						reset(e);
+						from = 0;
+					}
+				}
+				if (from == 0) {
+					from = branchOff(e, env, segments, repository);
+					// The connection of the thread was moved to the environment the branch was copied from
+					repository = this.session.repository(url);
+				}
+			}
+			if (changed <= from) {
+				return from;
+			}
+			// Before the branch was created its flows.json was at the copy source
+			long start = e.base == null ? from + 1 : Math.max(from, e.created - 1) + 1;
+			try {
+				repository.getFileRevisions("flows.json", start, changed, new Indexer(e, start - 1));
+			} catch (SVNException ex) {
+				if (ex.getCause() instanceof IOException) {
+					throw (IOException) ex.getCause();
+				}
+				throw ex;
+			}
+			synchronized (e) {
+				e.revision = Math.max(e.revision, changed);
+				log.debug("Node index of {} at revision {}, {} nodes", env, e.revision, e.last.size());
+				return e.revision;
+			}
+		}
+	}
+
+	/**
+	 * Build the index of an environment that was never indexed in the background. A failed build is
+	 * reported once, by throwing its exception; the next call starts a new build.
+	 *
+	 * @param env "trunk" or branchName
+	 * @return true while the build runs, false when the environment is indexed and can be updated
+	 * @throws SVNException
+	 * @throws IOException
+	 */
+	public boolean isBuilding(String env) throws SVNException, IOException {
+		Env e = env(env);
+		String key = env.equalsIgnoreCase("trunk") ? "trunk" : env;
+		// A branch has a revision as soon as it got the changes from before the copy, while its own are still indexed
+		CompletableFuture<Long> build = this.builds.get(key);
+		if (build == null) {
+			synchronized (e) {
+				if (e.revision > 0) {
+					return false;
+				}
+			}
+			build = this.builds.computeIfAbsent(key, k -> CompletableFuture.supplyAsync(() -> {
+				try {
+					return update(env);
+				} catch (SVNException | IOException ex) {
+					throw new CompletionException(ex);
+				}
+			}, this.builder));
+		}
+		if (!build.isDone()) {
+			return true;
+		}
+		this.builds.remove(key, build);
+		try {
+			build.join();
+		} catch (CompletionException ex) {
+			if (ex.getCause() instanceof SVNException) {
+				throw (SVNException) ex.getCause();
+			}
+			if (ex.getCause() instanceof IOException) {
+				throw (IOException) ex.getCause();
+			}
+			throw ex;
+		}
+		return false;
+	}
+
+	/**
+	 * @param env "trunk" or branchName
+	 * @return the revision the environment is indexed to (the last indexed change of its flows.json,
+	 *         or the copy revision of a branch), 0 if it was never indexed
+	 * @throws IOException
+	 */
+	public long getRevision(String env) throws IOException {
+		Env e = env(env);
+		synchronized (e) {
+			return e.revision;
+		}
+	}
+
+	/**
+	 * Get the last change of a node
+	 *
+	 * @param env "trunk" or branchName
+	 * @param nodeId id of the node
+	 * @return the last change or null if the node is not in the index
+	 * @throws IOException
+	 */
+	public NodeChange getLastChange(String env, String nodeId) throws IOException {
+		Env e = env(env);
+		synchronized (e) {
+			return e.last.get(nodeId);
+		}
+	}
+
+	/**
+	 * Get all changes of a node
+	 *
+	 * @param env "trunk" or branchName
+	 * @param nodeId id of the node
+	 * @return the changes, oldest first; empty if the node is not in the index
+	 * @throws IOException
+	 */
+	public List<NodeChange> getHistory(String env, String nodeId) throws IOException {
+		Env e = env(env);
+		synchronized (e) {
+			List<NodeChange> h = e.history.get(nodeId);
+			return h == null ? Collections.emptyList() : Collections.unmodifiableList(new ArrayList<>(h));
+		}
+	}
+
+	/**
+	 * Get the last change of every node that is in the flows.json of the latest indexed revision
+	 *
+	 * @param env "trunk" or branchName
+	 * @return node id -> last change, sorted by node id
+	 * @throws IOException
+	 */
+	public Map<String, NodeChange> getLastChanges(String env) throws IOException {
+		Env e = env(env);
+		Map<String, NodeChange> changes = new TreeMap<>();
+		synchronized (e) {
+			for (NodeChange c : e.last.values()) {
+				if (!c.isDeleted()) {
+					changes.put(c.getNodeId(), c);
+				}
+			}
+		}
+		return changes;
+	}
+
+	@Override
+	public void close() {
+		this.builder.shutdownNow();
+		this.builds.clear();
+		for (Env e : this.envs.values()) {
+			synchronized (e) {
+				if (e.writer != null) {
+					try {
+						e.writer.close();
+					} catch (IOException ex) {
+						log.warn("Closing the node index {} failed: {}", e.file, ex.getMessage());
+					}
+					e.writer = null;
+				}
+			}
+		}
+		this.envs.clear();
+	}
+
+	/**
+	 * Get the index of an environment, loaded from its file on the first call
+	 */
+	private Env env(String env) throws IOException {
+		String key = env.equalsIgnoreCase("trunk") ? "trunk" : env;
+		Env e = this.envs.get(key);
+		if (e == null) {
+			synchronized (this.envs) {
+				e = this.envs.get(key);
+				if (e == null) {
+					e = new Env(this.dir.resolve(URLEncoder.encode(key, StandardCharsets.UTF_8) + ".nodes"));
+					load(e);
+					this.envs.put(key, e);
+				}
+			}
+		}
+		return e;
+	}
+
+	private void load(Env e) throws IOException {
+		if (!Files.exists(e.file)) {
+			return;
+		}
+		byte[] bytes = Files.readAllBytes(e.file);
+		List<String[]> pending = new ArrayList<>();
+		int valid = 0;
+		int start = 0;
+		for (int i = 0; i < bytes.length; i++) {
+			if (bytes[i] != '\n') {
+				continue;
+			}
+			String line = new String(bytes, start, i - start, StandardCharsets.UTF_8);
+			start = i + 1;
+			String[] f = line.split(" ", 4);
+			if ((f.length == 4) && f[0].equals("B") && (valid == 0) && pending.isEmpty()) {
+				try {
+					e.created = Long.parseLong(f[1]);
+					e.baseRevision = Long.parseLong(f[2]);
+				} catch (NumberFormatException ex) {
+					break;
+				}
+				if (f[3].equals("-")) {
+					// Not copied from the trunk or a branch: the file holds the whole history
+					valid = start;
+					continue;
+				}
+				Env b = env(f[3]);
+				synchronized (b) {
+					if (b.revision == 0) {
+						// Without the index it was copied from the branch has to be indexed again
+						log.warn("The node index of {} misses {}, it is rebuilt", f[3], e.file);
+						e.created = 0;
+						e.baseRevision = 0;
+						break;
+					}
+				}
+				e.base = f[3];
+				seed(e, b);
+				valid = start;
+			} else if ((f.length == 4) && f[0].equals("N")) {
+				pending.add(f);
+			} else if ((f.length == 4) && f[0].equals("R")) {
+				// All changes must belong to the revision before any of them is applied
+				List<NodeChange> changes = new ArrayList<>(pending.size());
+				long rev;
+				try {
+					rev = Long.parseLong(f[1]);
+					long date = Long.parseLong(f[2]);
+					for (String[] n : pending) {
+						if (Long.parseLong(n[1]) != rev) {
+							throw new NumberFormatException();
+						}
+						changes.add(new NodeChange(n[3], rev, f[3], date, n[2].equals("-") ? null : n[2]));
+					}
+				} catch (NumberFormatException ex) {
+					break;
+				}
+				for (NodeChange c : changes) {
+					apply(e, c);
+				}
+				e.revision = Math.max(e.revision, rev);
+				pending.clear();
+				valid = start;
+			} else {
+				break;
+			}
+		}
+		if (valid < bytes.length) {
+			log.warn("Cutting off an incomplete revision at the end of {}", e.file);
+			try (FileChannel fc = FileChannel.open(e.file, StandardOpenOption.WRITE)) {
+				fc.truncate(valid);
+			}
+		}
+	}
+
+	/**
+	 * Start the index of a branch that was never indexed from the index of the environment its flows.json
+	 * was copied from, up to the copy revision. The B line records the revision that created the branch, so a
+	 * branch that is created again under the same name is recognized.
+	 *
+	 * @param segments the locations of the flows.json of the branch, newest first
+	 * @return the revision the branch is indexed to: the copy revision, 0 if the flows.json was not copied
+	 *         from the trunk or a branch
+	 */
+	private long branchOff(Env e, String branch, List<SVNLocationSegment> segments, SVNRepository repository) throws SVNException, IOException {
+		String base = null;
+		long baseRevision = 0;
+		if ((segments.size() > 1) && (segments.get(1).getPath() != null)) {
+			SVNLocationSegment copy = segments.get(1);
+			SVNURL source = repository.getRepositoryRoot(true).appendPath(copy.getPath(), false).removePathTail();
+			if (source.equals(this.session.getTrunkUrl())) {
+				base = "trunk";
+			} else if (source.removePathTail().equals(this.session.getBranchBaseUrl())) {
+				base = SVNPathUtil.tail(source.getPath());
+			} else {
+				log.info("{} was copied from {}, it is indexed from the start", branch, source);
+			}
+			baseRevision = base == null ? 0 : copy.getEndRevision();
+		}
+		if (base != null) {
+			update(base);
+		}
+		long created = segments.isEmpty() ? 0 : segments.get(0).getStartRevision();
+		synchronized (e) {
+			openWriter(e);
+			e.writer.write("B " + created + " " + baseRevision + " " + (base == null ? "-" : base) + "\n");
+			e.writer.flush();
+			e.base = base;
+			e.baseRevision = baseRevision;
+			e.created = created;
+		}
+		if (base != null) {
+			seed(e, env(base));
+		}
+		synchronized (e) {
+			return e.revision;
+		}
+	}
+
+	/**
+	 * Forget the index of an environment and empty its file
+	 */
+	private static void reset(Env e) {
+		try {
+			if (e.writer != null) {
+				e.writer.close();
+				e.writer = null;
+			}
+			Files.deleteIfExists(e.file);
+		} catch (IOException ex) {
+			log.warn("Removing the node index {} failed: {}", e.file, ex.getMessage());
+		}
+		e.last.clear();
+		e.history.clear();
+		e.revision = 0;
+		e.base = null;
+		e.baseRevision = 0;
+		e.created = 0;
+	}
+
+	/**
+	 * Add the changes of the base environment up to the copy revision to a branch
+	 */
+	private static void seed(Env e, Env b) {
+		List<NodeChange> changes = new ArrayList<>();
+		synchronized (b) {
+			for (List<NodeChange> h : b.history.values()) {
+				for (NodeChange c : h) {
+					if (c.getRevision() <= e.baseRevision) {
+						changes.add(c);
+					}
+				}
+			}
+		}
+		synchronized (e) {
+			for (NodeChange c : changes) {
+				apply(e, c);
+			}
+			e.revision = Math.max(e.revision, e.baseRevision);
+		}
+	}
+
+	private static void apply(Env e, NodeChange c) {
+		e.last.put(c.getNodeId(), c);
+		e.history.computeIfAbsent(c.getNodeId(), k -> new ArrayList<>()).add(c);
+	}
+
+	/**
+	 * Write the changes of one revision to the file of the environment and add them to the index
+	 */
+	private void append(Env e, long revision, String author, long date, List<NodeChange> changes) throws IOException {
+		synchronized (e) {
+			openWriter(e);
+			for (NodeChange c : changes) {
+				e.writer.write("N " + revision + " " + (c.isDeleted() ? "-" : c.getHash()) + " " + c.getNodeId() + "\n");
+			}
+			e.writer.write("R " + revision + " " + date + " " + author + "\n");
+			e.writer.flush();
+			for (NodeChange c : changes) {
+				apply(e, c);
+			}
+			e.revision = Math.max(e.revision, revision);
+		}
+	}
+
+	private void openWriter(Env e) throws IOException {
+		if (e.writer == null) {
+			Files.createDirectories(this.dir);
+			e.writer = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(e.file, StandardOpenOption.CREATE, StandardOpenOption.APPEND), StandardCharsets.UTF_8));
+		}
+	}
+
+	/**
+	 * Get the checksum of the JSON of every node of a flows.json
+	 *
+	 * @return node id -> MD5 checksum
+	 */
+	static Map<String, String> hashNodes(byte[] flow) {
+		Map<String, String> hashes = new HashMap<>();
+		JsonArray nodes;
+		try (JsonReader reader = Json.createReader(Utils.reader(ByteBuffer.wrap(flow)))) {
+			JsonStructure json = reader.read();
+			// Newer NodeRED versions can wrap the nodes: { "rev": ..., "flows": [...] }
+			nodes = json instanceof JsonArray ? (JsonArray) json : ((JsonObject) json).getJsonArray("flows");
+		}
+		if (nodes == null) {
+			return hashes;
+		}
+		try {
+			MessageDigest md = MessageDigest.getInstance("MD5");
+			for (JsonValue jv : nodes) {
+				if (jv.getValueType() == JsonValue.ValueType.OBJECT) {
+					String id = ((JsonObject) jv).getString("id", null);
+					if (id != null) {
+						hashes.put(id, Utils.bytesToHex(md.digest(jv.toString().getBytes(StandardCharsets.UTF_8))).toLowerCase());
+					}
+				}
+			}
+		} catch (NoSuchAlgorithmException ex) {
+			throw new IllegalStateException(ex);
+		}
+		return hashes;
+	}
+
+	/**
+	 * Rebuilds every revision of flows.json from the deltas and indexes the nodes that changed
+	 */
+	private class Indexer implements ISVNFileRevisionHandler {
+		private final Env env;
+		private final long from;
+		private final SVNDeltaProcessor processor = new SVNDeltaProcessor();
+		private SVNFileRevision current;
+		private byte[] content;
+		private ByteArrayOutputStream target;
+
+		private Indexer(Env env, long from) {
+			this.env = env;
+			this.from = from;
+		}
+
+		@Override
+		public void openRevision(SVNFileRevision fileRevision) throws SVNException {
+			this.current = fileRevision;
+		}
+
+		@Override
+		public void applyTextDelta(String path, String baseChecksum) throws SVNException {
+			this.target = new ByteArrayOutputStream();
+			this.processor.applyTextDelta(new ByteArrayInputStream(this.content == null ? new byte[0] : this.content), this.target, false);
+		}
+
+		@Override
+		public OutputStream textDeltaChunk(String path, SVNDiffWindow diffWindow) throws SVNException {
+			return this.processor.textDeltaChunk(diffWindow);
+		}
+
+		@Override
+		public void textDeltaEnd(String path) throws SVNException {
+			this.processor.textDeltaEnd();
+			this.content = this.target.toByteArray();
+			this.target = null;
+		}
+
+		@Override
+		public void closeRevision(String token) throws SVNException {
+			long rev = this.current.getRevision();
+			if ((rev <= this.from) || (this.content == null)) {
+				// Only the base for the next delta
+				return;
+			}
+			SVNProperties props = this.current.getRevisionProperties();
+			String author = props.getStringValue(SVNRevisionProperty.AUTHOR);
+			String date = props.getStringValue(SVNRevisionProperty.DATE);
+			long time = date == null ? 0 : SVNDate.parseDate(date).getTime();
+			author = author == null ? "" : author;
+			List<NodeChange> changes = new ArrayList<>();
+			try {
+				Map<String, String> hashes = hashNodes(this.content);
+				synchronized (this.env) {
+					for (Map.Entry<String, String> h : hashes.entrySet()) {
+						NodeChange prev = this.env.last.get(h.getKey());
+						if ((prev == null) || !h.getValue().equals(prev.getHash())) {
+							changes.add(new NodeChange(h.getKey(), rev, author, time, h.getValue()));
+						}
+					}
+					for (NodeChange prev : this.env.last.values()) {
+						if (!prev.isDeleted() && !hashes.containsKey(prev.getNodeId())) {
+							changes.add(new NodeChange(prev.getNodeId(), rev, author, time, null));
+						}
+					}
+				}
+			} catch (JsonException | ClassCastException e) {
+				log.warn("flows.json of revision {} ({}) is not a flow, skipped: {}", rev, this.current.getPath(), e.getMessage());
+			}
+			try {
+				append(this.env, rev, author, time, changes);
+			} catch (IOException e) {
+				throw new SVNException(SVNErrorMessage.create(SVNErrorCode.IO_ERROR, "Writing the node index failed: {0}", e.getMessage()), e);
+			}
+		}
+	}
+}
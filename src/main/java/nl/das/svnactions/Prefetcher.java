@@ -0,0 +1,371 @@
+/*
+ * Copyright © 2022 Dutch Arrow Software - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the Apache Software License 2.0.
+ *
+ * Created 14 Oct 2022.
+ */
+
+
+package nl.das.svnactions;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.json.Json;
+import javax.json.JsonException;
+import javax.json.stream.JsonParser;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.tmatesoft.svn.core.SVNException;
+import org.tmatesoft.svn.core.SVNProperties;
+import org.tmatesoft.svn.core.SVNProperty;
+import org.tmatesoft.svn.core.SVNURL;
+import org.tmatesoft.svn.core.internal.util.SVNPathUtil;
+
+/**
+ * Fetches the content of a branch before it is asked for.<br><br>
+ * Opening a branch takes {@link SvnActions#getLatestBranchRevisions(String)}, the flows.json and the three
+ * uibuilder index files, one call after the other. The prefetcher does it in one pipeline: the flows.json of
+ * HEAD is streamed through a JSON parser while it comes in, so the uibuilder URL is known as soon as the flow
+ * is, and then the three index files are fetched concurrently. Like {@link SvnActions#getUiUrl(java.io.Reader)}
+ * the parser takes the URL of the last uibuilder node, so the prefetched UI path is the one the getters find.
+ * The last changed revision of every file comes with its content, so the revision numbers cost no extra calls.<br><br>
+ * The content is kept for a short time under its last changed revision, where the content getters of
+ * SvnActions find it. The revision numbers are handed out once, to the next
+ * {@link SvnActions#getLatestBranchRevisions(String)} of the branch, which waits for the pipeline if it is
+ * still running. The UI path is kept as well, under the revisions of the flows.json and of the UI files that
+ * have the HEAD flow, so {@link SvnActions#getUiPath(String, long)} does not read the flow again.<br><br>
+ * The fetches run on a bounded pool. The parsers run on a pool of the same size: a parser reads what a
+ * running fetch writes into the pipe, so it must not wait in the queue of the fetches.<br><br>
+ * Properties:<br>
+ * <table>
+ * <tr><td>prefetch.ttl</td><td>Time in milliseconds that prefetched content is kept (default 30000)</td></tr>
+ * <tr><td>prefetch.threads</td><td>Number of files that are fetched at the same time (default 4)</td></tr>
+ * </table>
+ */
+public class Prefetcher implements AutoCloseable {
+	private static final Logger log = LoggerFactory.getLogger(Prefetcher.class);
+	private static final String[] UI_TYPES = {"html", "js", "css"};
+
+	private SvnSession session;
+	private long ttl;
+	private ExecutorService executor;
+	private ExecutorService parsers;
+	private final Map<String, Timed<ByteBuffer>> content = new ConcurrentHashMap<>();
+	private final Map<String, Timed<String>> uiPaths = new ConcurrentHashMap<>();
+	private final Map<String, Timed<CompletableFuture<long[]>>> revisions = new ConcurrentHashMap<>();
+
+	public Prefetcher(SvnSession session) {
+		this.session = session;
+		this.ttl = Long.parseLong(session.getProperties().getProperty("prefetch.ttl", "30000")) * 1000000L;
+		int threads = Integer.parseInt(session.getProperties().getProperty("prefetch.threads", "4"));
+		this.executor = newPool("svn-prefetch-", threads);
+		this.parsers = newPool("svn-prefetch-parse-", threads);
+	}
+
+	private static ExecutorService newPool(String name, int threads) {
+		AtomicInteger n = new AtomicInteger();
+		return Executors.newFixedThreadPool(threads, r -> {
+			Thread t = new Thread(r, name + n.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	/**
+	 * Start fetching the HEAD content of a branch. A prefetch of the same branch that is still
+	 * running (or not yet taken) is reused.
+	 *
+	 * @param branch name of the branch
+	 * @return the future of the revision numbers as returned by {@link SvnActions#getLatestBranchRevisions(String)}
+	 */
+	public CompletableFuture<long[]> prefetchBranch(String branch) {
+		evict();
+		Timed<CompletableFuture<long[]>> t = this.revisions.compute(branch, (k, old) -> {
+			if ((old != null) && !old.isExpired() && !old.value.isCompletedExceptionally()) {
+				return old;
+			}
+			return new Timed<>(load(branch), this.ttl);
+		});
+		return t.value;
+	}
+
+	/**
+	 * Take the prefetched revision numbers of a branch, waiting for the prefetch if it is still running.
+	 *
+	 * @param branch name of the branch
+	 * @return the revision numbers or null if there is no (successful) prefetch of the branch
+	 */
+	public long[] takeRevisions(String branch) {
+		Timed<CompletableFuture<long[]>> t = this.revisions.remove(branch);
+		if ((t == null) || t.isExpired()) {
+			return null;
+		}
+		try {
+			return t.value.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			log.debug("Prefetch of {} failed: {}", branch, e.getCause().getMessage());
+		}
+		return null;
+	}
+
+	/**
+	 * Get prefetched content
+	 *
+	 * @param url URL of the file
+	 * @param revision revision number
+	 * @return the content (read-only) or null if it was not prefetched or has expired
+	 */
+	public ByteBuffer get(SVNURL url, long revision) {
+		Timed<ByteBuffer> t = this.content.get(url.toString() + "@" + revision);
+		return (t == null) || t.isExpired() ? null : t.value.duplicate();
+	}
+
+	/**
+	 * Get the prefetched UI path of a revision of a branch (see {@link SvnActions#getUiPath(String, long)})
+	 *
+	 * @param branch name of the branch
+	 * @param revision revision number
+	 * @return the UI path or null if it was not prefetched or has expired
+	 */
+	public String getUiPath(String branch, long revision) {
+		Timed<String> t = this.uiPaths.get(branch + "@" + revision);
+		return (t == null) || t.isExpired() ? null : t.value;
+	}
+
+	@Override
+	public void close() {
+		this.executor.shutdownNow();
+		this.parsers.shutdownNow();
+		this.content.clear();
+		this.uiPaths.clear();
+		this.revisions.clear();
+	}
+
+	private CompletableFuture<long[]> load(String branch) {
+		SVNURL base;
+		try {
+			base = this.session.getBranchBaseUrl().appendPath(branch, false);
+		} catch (SVNException e) {
+			return CompletableFuture.failedFuture(e);
+		}
+		CompletableFuture<String> uiPath = new CompletableFuture<>();
+		CompletableFuture<Long> flow = CompletableFuture.supplyAsync(() -> fetchFlow(base, uiPath), this.executor);
+		// Makes sure that the UI fetches start, also when the flow fails
+		flow.whenComplete((r, e) -> uiPath.complete(""));
+		CompletableFuture<?>[] all = new CompletableFuture<?>[UI_TYPES.length + 1];
+		all[0] = flow;
+		for (int i = 0; i < UI_TYPES.length; i++) {
+			String type = UI_TYPES[i];
+			// No uibuilder node, so no UI files
+			all[i + 1] = uiPath.thenApplyAsync(p -> p.isEmpty() ? 0L : fetchFile(base, "uibuilder/" + p + "/src/index." + type, null), this.executor);
+		}
+		return CompletableFuture.allOf(all).thenApply(v -> {
+			long[] rev = new long[all.length];
+			for (int i = 0; i < all.length; i++) {
+				rev[i] = (Long) all[i].join();
+			}
+			// A UI file that changed after the flows.json has the HEAD flow, so the same UI path
+			String p = uiPath.join();
+			for (long r : rev) {
+				if (r >= rev[0]) {
+					this.uiPaths.put(branch + "@" + r, new Timed<>(p, this.ttl));
+				}
+			}
+			return rev;
+		});
+	}
+
+	/**
+	 * Fetch the flows.json and complete the UI path as soon as the parser has seen it
+	 */
+	private long fetchFlow(SVNURL base, CompletableFuture<String> uiPath) {
+		PipedInputStream in = new PipedInputStream(65536);
+		try {
+			PipedOutputStream pipe = new PipedOutputStream(in);
+			CompletableFuture<Void> sniffer = CompletableFuture.runAsync(() -> sniffUiPath(in, uiPath), this.parsers);
+			long rev = fetchFile(base, "flows.json", pipe);
+			sniffer.join();
+			if (!uiPath.isDone()) {
+				// The streaming parser gave up, parse the complete flow
+				uiPath.complete(SvnActions.getUiUrl(Utils.reader(get(base.appendPath("flows.json", false), rev))));
+			}
+			return rev;
+		} catch (IOException | SVNException e) {
+			throw new CompletionException(e);
+		}
+	}
+
+	/**
+	 * Fetch a file of HEAD into the cache and the content store
+	 *
+	 * @param pipe stream that gets a copy of the content while it comes in, or null
+	 * @return the last changed revision of the file, 0 if the file does not exist
+	 */
+	private long fetchFile(SVNURL base, String path, OutputStream pipe) {
+		Tee out = new Tee(pipe);
+		try {
+			SVNURL url = base.appendPath(path, false);
+			SVNProperties props = new SVNProperties();
+			this.session.repository(url.removePathTail()).getFile(SVNPathUtil.tail(url.getPath()), -1, props, out);
+			long rev = Long.parseLong(props.getStringValue(SVNProperty.COMMITTED_REVISION));
+			ByteBuffer content = out.buffer.toByteBuffer();
+			this.content.put(url.toString() + "@" + rev, new Timed<>(content, this.ttl));
+			ContentStore store = this.session.getContentStore();
+			if (store != null) {
+				store.put(url.toString(), rev, props.getStringValue(SVNProperty.CHECKSUM), content);
+			}
+			return rev;
+		} catch (SVNException e) {
+			if (SvnErrors.isNotFound(e) && (pipe == null)) {
+				return 0;
+			}
+			throw new CompletionException(e);
+		} catch (IOException e) {
+			throw new CompletionException(e);
+		} finally {
+			out.closePipe();
+		}
+	}
+
+	/**
+	 * Read the flow from the pipe and complete the UI path with the URL of the last uibuilder node.
+	 * When the parser gives up, the rest of the pipe is drained, so the fetch is never blocked.
+	 */
+	private static void sniffUiPath(InputStream in, CompletableFuture<String> uiPath) {
+		try {
+			JsonParser parser = Json.createParser(new InputStreamReader(in, StandardCharsets.UTF_8));
+			int depth = 0;
+			String key = null;
+			String type = null;
+			String url = "";
+			String last = "";
+			while (parser.hasNext()) {
+				switch (parser.next()) {
+				case START_OBJECT:
+				case START_ARRAY:
+					depth++;
+					break;
+				case END_OBJECT:
+					if ((depth == 2) && "uibuilder".equalsIgnoreCase(type)) {
+						last = url;
+					}
+					if (depth == 2) {
+						type = null;
+						url = "";
+					}
+					depth--;
+					break;
+				case END_ARRAY:
+					depth--;
+					break;
+				case KEY_NAME:
+					key = parser.getString();
+					break;
+				case VALUE_STRING:
+					if ((depth == 2) && "type".equals(key)) {
+						type = parser.getString();
+					} else if ((depth == 2) && "url".equals(key)) {
+						url = parser.getString();
+					}
+					break;
+				default:
+					break;
+				}
+			}
+			// "" for a flow without uibuilder node
+			uiPath.complete(last);
+		} catch (JsonException e) {
+			log.debug("Flow cannot be parsed while streaming: {}", e.getMessage());
+		} finally {
+			try {
+				byte[] buf = new byte[8192];
+				while (in.read(buf) != -1) {
+					// drain
+				}
+				in.close();
+			} catch (IOException e) {
+				// The fetch has ended
+			}
+		}
+	}
+
+	private void evict() {
+		this.content.values().removeIf(Timed::isExpired);
+		this.uiPaths.values().removeIf(Timed::isExpired);
+		this.revisions.values().removeIf(Timed::isExpired);
+	}
+
+	/**
+	 * Collects the content and copies it into the pipe, if there is one
+	 */
+	private static class Tee extends OutputStream {
+		private SvnActions.ContentBuffer buffer = new SvnActions.ContentBuffer();
+		private OutputStream pipe;
+
+		Tee(OutputStream pipe) {
+			this.pipe = pipe;
+		}
+
+		@Override
+		public void write(int b) {
+			write(new byte[] {(byte) b}, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			this.buffer.write(b, off, len);
+			if (this.pipe != null) {
+				try {
+					this.pipe.write(b, off, len);
+				} catch (IOException e) {
+					// The parser is gone, the content is still collected
+					this.pipe = null;
+				}
+			}
+		}
+
+		void closePipe() {
+			if (this.pipe != null) {
+				try {
+					this.pipe.close();
+				} catch (IOException e) {
+					// Nobody is reading any more
+				}
+				this.pipe = null;
+			}
+		}
+	}
+
+	private static class Timed<T> {
+		final T value;
+		final long expires;
+
+		Timed(T value, long ttl) {
+			this.value = value;
+			this.expires = System.nanoTime() + ttl;
+		}
+
+		boolean isExpired() {
+			return System.nanoTime() - this.expires > 0;
+		}
+	}
+}
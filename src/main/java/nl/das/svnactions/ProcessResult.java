@@ -0,0 +1,80 @@
+/*
+ * Copyright © 2022 Dutch Arrow Software - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the Apache Software License 2.0.
+ *
+ * Created 14 Oct 2022.
+ */
+
+
+package nl.das.svnactions;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The outcome of an external process run by the {@link ProcessRunner}.
+ */
+public final class ProcessResult {
+	private final List<String> command;
+	private final int exitCode;
+	private final Duration duration;
+	private final boolean timedOut;
+	private final List<String> output;
+	private final List<String> errors;
+
+	public ProcessResult(List<String> command, int exitCode, Duration duration, boolean timedOut, List<String> output, List<String> errors) {
+		this.command = Collections.unmodifiableList(command);
+		this.exitCode = exitCode;
+		this.duration = duration;
+		this.timedOut = timedOut;
+		this.output = Collections.unmodifiableList(output);
+		this.errors = Collections.unmodifiableList(errors);
+	}
+
+	public List<String> getCommand() {
+		return this.command;
+	}
+
+	/**
+	 * @return the exit code of the process, -1 if it was killed after the timeout
+	 */
+	public int getExitCode() {
+		return this.exitCode;
+	}
+
+	public Duration getDuration() {
+		return this.duration;
+	}
+
+	public boolean isTimedOut() {
+		return this.timedOut;
+	}
+
+	/**
+	 * @return true if the process ended by itself with exit code 0
+	 */
+	public boolean isSuccess() {
+		return !this.timedOut && (this.exitCode == 0);
+	}
+
+	/**
+	 * @return the last lines of the standard output
+	 */
+	public List<String> getOutput() {
+		return this.output;
+	}
+
+	/**
+	 * @return the last lines of the standard error
+	 */
+	public List<String> getErrors() {
+		return this.errors;
+	}
+
+	@Override
+	public String toString() {
+		return String.join(" ", this.command) + ": " + (this.timedOut ? "timed out" : "exit " + this.exitCode) + " after " + this.duration.toMillis() + " ms";
+	}
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright © 2022 Dutch Arrow Software - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the Apache Software License 2.0.
+ *
+ * Created 14 Oct 2022.
+ */
+
+
+package nl.das.svnactions;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs external processes (npm and the like) in a work directory.<br><br>
+ * The standard output and standard error of every process are drained by two daemon threads of a shared pool,
+ * so a process never blocks on a full pipe. The pool is not bounded: a drain thread per stream must start as
+ * soon as the process does, otherwise its output fills the pipe and the process hangs until the timeout.
+ * Idle threads end after a minute, so the number of threads follows the number of running processes.
+ * Of both streams only the last lines are kept. A process that runs longer than the timeout is killed,
+ * together with all its descendants.<br><br>
+ * Properties:<br>
+ * <table>
+ * <tr><td>process.timeout</td><td>Time in milliseconds after which a process is killed (default 600000)</td></tr>
+ * <tr><td>process.tail</td><td>Number of output lines that is kept per stream (default 200)</td></tr>
+ * </table>
+ */
+public class ProcessRunner implements AutoCloseable {
+	private static final Logger log = LoggerFactory.getLogger(ProcessRunner.class);
+	private static final long GRACE = TimeUnit.SECONDS.toNanos(2);
+
+	private long timeout;
+	private int tailLines;
+	private ExecutorService drainers;
+
+	public ProcessRunner(Properties props) {
+		this.timeout = Long.parseLong(props.getProperty("process.timeout", "600000"));
+		this.tailLines = Integer.parseInt(props.getProperty("process.tail", "200"));
+		AtomicInteger n = new AtomicInteger();
+		this.drainers = Executors.newCachedThreadPool(r -> {
+			Thread t = new Thread(r, "process-drain-" + n.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	/**
+	 * The command to run a command line with the shell of the platform
+	 *
+	 * @param commandLine e.g. "npm install"
+	 * @return the command
+	 */
+	public static List<String> shell(String commandLine) {
+		if (System.getProperty("os.name").toLowerCase().startsWith("windows")) {
+			return Arrays.asList("cmd.exe", "/c", commandLine);
+		}
+		return Arrays.asList("sh", "-c", commandLine);
+	}
+
+	/**
+	 * Run a process and wait until it ends or the timeout has passed
+	 *
+	 * @param dir working directory of the process
+	 * @param command the command and its arguments
+	 * @return the result
+	 * @throws IOException if the process cannot be started
+	 * @throws InterruptedException if the calling thread is interrupted; the process is killed
+	 */
+	public ProcessResult run(File dir, List<String> command) throws IOException, InterruptedException {
+		return run(dir, command, null);
+	}
+
+	/**
+	 * Run a process and wait until it ends or the timeout has passed
+	 *
+	 * @param dir working directory of the process
+	 * @param command the command and its arguments
+	 * @param listener gets every output line (of both streams) while the process runs, may be null.
+	 *        It is called on a drain thread, so it should return quickly.
+	 * @return the result
+	 * @throws IOException if the process cannot be started
+	 * @throws InterruptedException if the calling thread is interrupted; the process is killed
+	 */
+	public ProcessResult run(File dir, List<String> command, Consumer<String> listener) throws IOException, InterruptedException {
+		long start = System.nanoTime();
+		long deadline = start + TimeUnit.MILLISECONDS.toNanos(this.timeout);
+		Process process = new ProcessBuilder(command).directory(dir).start();
+		process.getOutputStream().close();
+		String name = command.get(command.size() - 1);
+		Tail out = new Tail(this.tailLines);
+		Tail err = new Tail(this.tailLines);
+		Future<?> outDrain = this.drainers.submit(() -> drain(process.getInputStream(), out, name, listener));
+		Future<?> errDrain = this.drainers.submit(() -> drain(process.getErrorStream(), err, name, listener));
+		boolean finished;
+		try {
+			finished = process.waitFor(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+			if (!finished) {
+				log.warn("{} in {} did not end within {} ms, killing it", name, dir, this.timeout);
+				kill(process);
+			}
+			// A descendant that outlives the process can keep the streams open
+			await(outDrain, process.getInputStream(), deadline);
+			await(errDrain, process.getErrorStream(), deadline);
+		} catch (InterruptedException e) {
+			kill(process);
+			throw e;
+		}
+		ProcessResult result = new ProcessResult(command, finished ? process.exitValue() : -1, Duration.ofNanos(System.nanoTime() - start), !finished,
+				out.lines(), err.lines());
+		log.debug("{}", result);
+		return result;
+	}
+
+	@Override
+	public void close() {
+		this.drainers.shutdownNow();
+	}
+
+	private static void drain(InputStream in, Tail tail, String name, Consumer<String> listener) {
+		try (BufferedReader rdr = new BufferedReader(new InputStreamReader(in))) {
+			String line;
+			while ((line = rdr.readLine()) != null) {
+				tail.add(line);
+				log.trace("{}: {}", name, line);
+				if (listener != null) {
+					listener.accept(line);
+				}
+			}
+		} catch (IOException e) {
+			// The stream was closed after the timeout
+		}
+	}
+
+	/**
+	 * Wait for a drain until the deadline, but at least a moment to pick up the output of a killed process
+	 */
+	private static void await(Future<?> drain, InputStream in, long deadline) throws InterruptedException {
+		try {
+			drain.get(Math.max(GRACE, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+		} catch (TimeoutException e) {
+			drain.cancel(true);
+			try {
+				in.close();
+			} catch (IOException ex) {
+				// Nothing left to read
+			}
+		} catch (ExecutionException e) {
+			log.warn("Draining process output failed: {}", e.getCause().getMessage());
+		}
+	}
+
+	private static void kill(Process process) {
+		process.descendants().forEach(ProcessHandle::destroyForcibly);
+		process.destroyForcibly();
+	}
+
+	/**
+	 * Ring buffer of the last lines of a stream
+	 */
+	private static class Tail {
+		private final int max;
+		private final ArrayDeque<String> lines = new ArrayDeque<>();
+
+		Tail(int max) {
+			this.max = max;
+		}
+
+		synchronized void add(String line) {
+			if (this.max == 0) {
+				return;
+			}
+			if (this.lines.size() == this.max) {
+				this.lines.removeFirst();
+			}
+			this.lines.addLast(line);
+		}
+
+		synchronized List<String> lines() {
+			return new ArrayList<>(this.lines);
+		}
+	}
+}
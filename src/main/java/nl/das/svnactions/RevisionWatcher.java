@@ -0,0 +1,205 @@
+/*
+ * Copyright © 2022 Dutch Arrow Software - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the Apache Software License 2.0.
+ *
+ * Created 14 Oct 2022.
+ */
+
+
+package nl.das.svnactions;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.tmatesoft.svn.core.SVNException;
+import org.tmatesoft.svn.core.SVNLogEntry;
+import org.tmatesoft.svn.core.SVNLogEntryPath;
+import org.tmatesoft.svn.core.SVNNodeKind;
+import org.tmatesoft.svn.core.io.SVNRepository;
+
+/**
+ * Watches the repository for new revisions and tells the subscribers what changed.<br><br>
+ * One background thread asks the repository for its latest revision number, which is the cheapest call
+ * there is. Only when that number moves, one log of the new revisions is run and the changes in the trunk,
+ * the branches and the SQL path are sent to all subscribers as {@link ChangeEvent}s.
+ * So N clients cost one poll instead of N times the revision calls of SvnActions.<br><br>
+ * The poll interval adapts: it drops to the minimum after a change and doubles on every quiet poll,
+ * up to the maximum.<br><br>
+ * Properties:<br>
+ * <table>
+ * <tr><td>watch.interval.min</td><td>Shortest poll interval in milliseconds (default 2000)</td></tr>
+ * <tr><td>watch.interval.max</td><td>Longest poll interval in milliseconds (default 60000)</td></tr>
+ * </table>
+ */
+public class RevisionWatcher implements AutoCloseable {
+	private static final Logger log = LoggerFactory.getLogger(RevisionWatcher.class);
+
+	private SvnSession session;
+	private long minInterval;
+	private long maxInterval;
+	private long interval;
+	private volatile long latestRevision = -1;
+	private String trunkPath;
+	private String branchesPath;
+	private String sqlPath;
+	private ScheduledExecutorService scheduler;
+	private final List<Consumer<ChangeEvent>> subscribers = new CopyOnWriteArrayList<>();
+
+	public RevisionWatcher(SvnSession session) {
+		this.session = session;
+		Properties props = session.getProperties();
+		this.minInterval = Long.parseLong(props.getProperty("watch.interval.min", "2000"));
+		this.maxInterval = Long.parseLong(props.getProperty("watch.interval.max", "60000"));
+		this.interval = this.minInterval;
+	}
+
+	/**
+	 * Register a subscriber. Subscribers are called on the watcher thread, so they should return quickly.
+	 *
+	 * @param subscriber
+	 */
+	public void subscribe(Consumer<ChangeEvent> subscriber) {
+		this.subscribers.add(subscriber);
+	}
+
+	public void unsubscribe(Consumer<ChangeEvent> subscriber) {
+		this.subscribers.remove(subscriber);
+	}
+
+	/**
+	 * Start watching. The current latest revision is the starting point, older changes are not reported.
+	 */
+	public synchronized void start() {
+		if (this.scheduler == null) {
+			this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+				Thread t = new Thread(r, "svn-revision-watcher");
+				t.setDaemon(true);
+				return t;
+			});
+			this.scheduler.execute(this::poll);
+		}
+	}
+
+	/**
+	 * @return the latest revision seen by the watcher, -1 if it did not poll yet
+	 */
+	public long getLatestRevision() {
+		return this.latestRevision;
+	}
+
+	@Override
+	public synchronized void close() {
+		if (this.scheduler != null) {
+			this.scheduler.shutdownNow();
+			this.scheduler = null;
+		}
+	}
+
+	private void poll() {
+		try {
+			SVNRepository repository = this.session.repository(this.session.getRepositoryRoot());
+			if (this.trunkPath == null) {
+				this.trunkPath = this.session.getRepositoryPath(this.session.getTrunkUrl());
+				this.branchesPath = this.session.getRepositoryPath(this.session.getBranchBaseUrl());
+				this.sqlPath = this.session.getRepositoryPath(this.session.getTrunkSqlUrl());
+			}
+			long latest = repository.getLatestRevision();
+			if (this.latestRevision == -1) {
+				this.latestRevision = latest;
+			}
+			if (latest > this.latestRevision) {
+				List<ChangeEvent> events = new ArrayList<>();
+				// Log the whole repository: one of the watched paths may not exist in every revision of the range
+				repository.log(new String[] {""}, this.latestRevision + 1, latest, true, false, le -> collect(le, this.trunkPath, this.branchesPath, this.sqlPath, events));
+				this.latestRevision = latest;
+				this.interval = this.minInterval;
+				publish(events);
+			} else {
+				this.interval = Math.min(this.interval * 2, this.maxInterval);
+			}
+		} catch (SVNException e) {
+			log.warn("Polling the repository failed: {}", e.getMessage());
+			this.interval = this.maxInterval;
+		} catch (RuntimeException e) {
+			log.warn("Polling the repository failed", e);
+			this.interval = this.maxInterval;
+		} finally {
+			// Whatever went wrong, the watching goes on
+			synchronized (this) {
+				if (this.scheduler != null) {
+					this.scheduler.schedule(this::poll, this.interval, TimeUnit.MILLISECONDS);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Turn the changed paths of one log entry into events. Paths outside the watched roots are ignored.
+	 *
+	 * @param le the log entry, with its changed paths
+	 * @param trunkPath repository path of the trunk NodeRED folder
+	 * @param branchesPath repository path of the branches folder
+	 * @param sqlPath repository path of the trunk SQL folder
+	 * @param events the list the events are added to
+	 */
+	static void collect(SVNLogEntry le, String trunkPath, String branchesPath, String sqlPath, List<ChangeEvent> events) {
+		for (SVNLogEntryPath ep : le.getChangedPaths().values()) {
+			String path = ep.getPath();
+			if (path.startsWith(trunkPath + "/")) {
+				addFileEvent("trunk", path.substring(trunkPath.length() + 1), ep, le, events);
+			} else if (path.startsWith(branchesPath + "/")) {
+				String rel = path.substring(branchesPath.length() + 1);
+				int slash = rel.indexOf('/');
+				if (slash < 0) {
+					if (ep.getType() == SVNLogEntryPath.TYPE_ADDED || ep.getType() == SVNLogEntryPath.TYPE_REPLACED) {
+						events.add(new ChangeEvent(ChangeEvent.Type.BRANCH_CREATED, rel, path, le.getRevision(), le.getAuthor()));
+					} else if (ep.getType() == SVNLogEntryPath.TYPE_DELETED) {
+						events.add(new ChangeEvent(ChangeEvent.Type.BRANCH_DELETED, rel, path, le.getRevision(), le.getAuthor()));
+					}
+				} else {
+					addFileEvent(rel.substring(0, slash), rel.substring(slash + 1), ep, le, events);
+				}
+			} else if (path.startsWith(sqlPath + "/")) {
+				if (ep.getType() == SVNLogEntryPath.TYPE_ADDED && ep.getKind() != SVNNodeKind.DIR) {
+					events.add(new ChangeEvent(ChangeEvent.Type.SQL_SCRIPT_ADDED, null, path, le.getRevision(), le.getAuthor()));
+				}
+			}
+		}
+	}
+
+	/**
+	 * @param env "trunk" or branchName
+	 * @param file path relative to the root of the environment
+	 */
+	private static void addFileEvent(String env, String file, SVNLogEntryPath ep, SVNLogEntry le, List<ChangeEvent> events) {
+		if (ep.getType() == SVNLogEntryPath.TYPE_DELETED) {
+			return;
+		}
+		if (file.equals("flows.json")) {
+			events.add(new ChangeEvent(ChangeEvent.Type.FLOW_CHANGED, env, ep.getPath(), le.getRevision(), le.getAuthor()));
+		} else if (file.startsWith("uibuilder/") && file.matches("uibuilder/[^/]+/src/index\\.(html|js|css)")) {
+			events.add(new ChangeEvent(ChangeEvent.Type.UI_CHANGED, env, ep.getPath(), le.getRevision(), le.getAuthor()));
+		}
+	}
+
+	private void publish(List<ChangeEvent> events) {
+		for (ChangeEvent ev : events) {
+			for (Consumer<ChangeEvent> s : this.subscribers) {
+				try {
+					s.accept(ev);
+				} catch (RuntimeException e) {
+					log.warn("Subscriber failed on {}", ev, e);
+				}
+			}
+		}
+	}
+}
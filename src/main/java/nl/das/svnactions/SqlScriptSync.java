@@ -0,0 +1,330 @@
+/*
+ * Copyright © 2022 Dutch Arrow Software - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the Apache Software License 2.0.
+ *
+ * Created 14 Oct 2022.
+ */
+
+
+package nl.das.svnactions;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.tmatesoft.svn.core.SVNDirEntry;
+import org.tmatesoft.svn.core.SVNException;
+import org.tmatesoft.svn.core.SVNLogEntry;
+import org.tmatesoft.svn.core.SVNLogEntryPath;
+import org.tmatesoft.svn.core.SVNNodeKind;
+import org.tmatesoft.svn.core.SVNURL;
+import org.tmatesoft.svn.core.io.SVNRepository;
+
+/**
+ * Keeps a local mirror of the trunk SQL path (path.sql) up to date.<br><br>
+ * The mirror remembers the revision it was synced to. A sync asks the log of the SQL path for the changes since
+ * that revision, in one call, and fetches only the files that were added or modified, in parallel.
+ * Deleted files are removed from the mirror. So the cost of a sync depends on the number of new scripts,
+ * not on the size of the tree. The first sync fetches everything.<br><br>
+ * Properties:<br>
+ * <table>
+ * <tr><td>sql.mirror</td><td>Directory of the mirror (default ~/.svnactions/sql)</td></tr>
+ * <tr><td>sql.threads</td><td>Number of files that is fetched in parallel (default 4)</td></tr>
+ * </table>
+ */
+public class SqlScriptSync {
+	private static final Logger log = LoggerFactory.getLogger(SqlScriptSync.class);
+	private static final String STATE = ".svnactions-revision";
+
+	/** Order of the scripts: by path, with numbers (e.g. 2_x.sql before 10_x.sql) compared by value */
+	static final Comparator<String> SCRIPT_ORDER = SqlScriptSync::compareNatural;
+
+	private SvnSession session;
+	private Path mirror;
+	private int threads;
+
+	public SqlScriptSync(SvnSession session) {
+		this(session, Paths.get(session.getProperties().getProperty("sql.mirror", System.getProperty("user.home") + "/.svnactions/sql")));
+	}
+
+	public SqlScriptSync(SvnSession session, Path mirror) {
+		this.session = session;
+		this.mirror = mirror;
+		this.threads = Integer.parseInt(session.getProperties().getProperty("sql.threads", "4"));
+	}
+
+	public Path getMirror() {
+		return this.mirror;
+	}
+
+	/**
+	 * @return the revision the mirror is synced to, 0 if it was never synced
+	 * @throws IOException
+	 */
+	public long getRevision() throws IOException {
+		Path state = this.mirror.resolve(STATE);
+		if (!Files.exists(state)) {
+			return 0;
+		}
+		try {
+			return Long.parseLong(new String(Files.readAllBytes(state), StandardCharsets.UTF_8).trim());
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
+	/**
+	 * Bring the mirror up to the latest revision of the SQL path. When a fetch fails, the revision of
+	 * the mirror is not moved, so the next sync picks up the same changes again.
+	 *
+	 * @return what changed in the mirror
+	 * @throws SVNException
+	 * @throws IOException
+	 */
+	public synchronized SqlSyncResult sync() throws SVNException, IOException {
+		SVNURL sqlUrl = this.session.getTrunkSqlUrl();
+		SVNRepository repository = this.session.repository(sqlUrl);
+		long latest = repository.getLatestRevision();
+		long from = getRevision();
+		Files.createDirectories(this.mirror);
+		// Relative path -> true (fetch) or false (delete)
+		Map<String, Boolean> changes = new TreeMap<>();
+		if (from <= 0) {
+			list(repository, "", latest, changes);
+		} else if (latest > from) {
+			// Changed paths are relative to the repository root
+			String prefix = sqlUrl.getPath().substring(repository.getRepositoryRoot(true).getPath().length());
+			Collection<SVNLogEntry> entries = repository.log(new String[] {""}, null, from + 1, latest, true, false);
+			for (SVNLogEntry entry : entries) {
+				for (SVNLogEntryPath ep : entry.getChangedPaths().values()) {
+					String p = ep.getPath();
+					if (!p.equals(prefix) && !p.startsWith(prefix + "/")) {
+						continue;
+					}
+					String rel = p.substring(prefix.length()).replaceFirst("^/", "");
+					switch (ep.getType()) {
+					case SVNLogEntryPath.TYPE_DELETED:
+						delete(rel, changes);
+						break;
+					case SVNLogEntryPath.TYPE_REPLACED:
+						delete(rel, changes);
+						add(repository, rel, ep.getKind(), latest, changes);
+						break;
+					case SVNLogEntryPath.TYPE_ADDED:
+						add(repository, rel, ep.getKind(), latest, changes);
+						break;
+					default:
+						// Modified; a modified directory only has new properties
+						if (ep.getKind() != SVNNodeKind.DIR) {
+							changes.put(rel, true);
+						}
+					}
+				}
+			}
+		}
+		List<String> added = new ArrayList<>();
+		List<String> modified = new ArrayList<>();
+		List<String> deleted = new ArrayList<>();
+		List<String> fetch = new ArrayList<>();
+		for (Map.Entry<String, Boolean> c : changes.entrySet()) {
+			Path file = this.mirror.resolve(c.getKey());
+			if (c.getValue()) {
+				fetch.add(c.getKey());
+				(Files.exists(file) ? modified : added).add(c.getKey());
+			} else if (Files.exists(file)) {
+				deleted.add(c.getKey());
+			}
+		}
+		// Delete first: a replaced directory is deleted and fetched again
+		for (String d : deleted) {
+			deleteTree(this.mirror.resolve(d));
+		}
+		fetchAll(sqlUrl, fetch, latest);
+		writeRevision(Math.max(latest, from));
+		SqlSyncResult result = new SqlSyncResult(from, Math.max(latest, from), added, modified, deleted);
+		log.debug("SQL sync {}", result);
+		return result;
+	}
+
+	/**
+	 * Register an added path: a file, or every file under a directory (e.g. a copied directory)
+	 */
+	private static void add(SVNRepository repository, String rel, SVNNodeKind kind, long latest, Map<String, Boolean> changes) throws SVNException {
+		if ((kind != SVNNodeKind.FILE) && (kind != SVNNodeKind.DIR)) {
+			// Not every server reports the kind
+			kind = repository.checkPath(rel, latest);
+		}
+		if (kind == SVNNodeKind.DIR) {
+			list(repository, rel, latest, changes);
+		} else if (kind == SVNNodeKind.FILE) {
+			changes.put(rel, true);
+		}
+	}
+
+	/**
+	 * Register a deleted path and forget the changes under it
+	 */
+	private void delete(String rel, Map<String, Boolean> changes) throws IOException {
+		if (rel.isEmpty()) {
+			// The SQL path itself: everything in the mirror goes
+			changes.clear();
+			try (Stream<Path> s = Files.list(this.mirror)) {
+				s.map(p -> p.getFileName().toString()).filter(n -> !n.equals(STATE)).forEach(n -> changes.put(n, false));
+			}
+			return;
+		}
+		changes.keySet().removeIf(k -> k.startsWith(rel + "/"));
+		changes.put(rel, false);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static void list(SVNRepository repository, String rel, long revision, Map<String, Boolean> changes) throws SVNException {
+		if (repository.checkPath(rel, revision) != SVNNodeKind.DIR) {
+			return;
+		}
+		Collection<SVNDirEntry> entries = repository.getDir(rel, revision, null, (Collection<SVNDirEntry>) null);
+		for (SVNDirEntry e : entries) {
+			String p = rel.isEmpty() ? e.getName() : rel + "/" + e.getName();
+			if (e.getKind() == SVNNodeKind.DIR) {
+				list(repository, p, revision, changes);
+			} else {
+				changes.put(p, true);
+			}
+		}
+	}
+
+	private void fetchAll(SVNURL sqlUrl, List<String> paths, long revision) throws SVNException, IOException {
+		if (paths.isEmpty()) {
+			return;
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(this.threads, paths.size())));
+		try {
+			List<Future<Void>> futures = new ArrayList<>();
+			for (String p : paths) {
+				futures.add(executor.submit(() -> {
+					fetch(sqlUrl, p, revision);
+					return null;
+				}));
+			}
+			for (Future<Void> f : futures) {
+				f.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("SQL sync interrupted", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof SVNException) {
+				throw (SVNException) e.getCause();
+			}
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Fetch a file into the mirror. It is written next to the target and moved over it,
+	 * so a reader of the mirror never sees half a script. The file gets the default permissions,
+	 * so deploy tooling that runs as another user can read it.
+	 */
+	private void fetch(SVNURL sqlUrl, String rel, long revision) throws SVNException, IOException {
+		Path target = this.mirror.resolve(rel);
+		Files.createDirectories(target.getParent());
+		Path tmp = tempFile(target);
+		try {
+			try (OutputStream out = Files.newOutputStream(tmp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+				this.session.repository(sqlUrl).getFile(rel, revision, null, out);
+			}
+			Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(tmp);
+		}
+	}
+
+	private void writeRevision(long revision) throws IOException {
+		Path target = this.mirror.resolve(STATE);
+		Path tmp = tempFile(target);
+		try {
+			Files.write(tmp, Long.toString(revision).getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+			Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(tmp);
+		}
+	}
+
+	/**
+	 * A new temporary file next to the target. Not Files.createTempFile: that makes the file readable for the owner only.
+	 */
+	private static Path tempFile(Path target) {
+		return target.resolveSibling(".svnactions-" + Long.toHexString(System.nanoTime()) + "-" + target.getFileName() + ".tmp");
+	}
+
+	private static void deleteTree(Path path) throws IOException {
+		if (Files.isDirectory(path)) {
+			List<Path> paths;
+			try (Stream<Path> s = Files.walk(path)) {
+				paths = s.sorted(Comparator.reverseOrder()).collect(Collectors.toList());
+			}
+			for (Path p : paths) {
+				Files.deleteIfExists(p);
+			}
+		} else {
+			Files.deleteIfExists(path);
+		}
+	}
+
+	private static int compareNatural(String a, String b) {
+		int i = 0;
+		int j = 0;
+		while ((i < a.length()) && (j < b.length())) {
+			char ca = a.charAt(i);
+			char cb = b.charAt(j);
+			if (Character.isDigit(ca) && Character.isDigit(cb)) {
+				int si = i;
+				int sj = j;
+				while ((i < a.length()) && Character.isDigit(a.charAt(i))) {
+					i++;
+				}
+				while ((j < b.length()) && Character.isDigit(b.charAt(j))) {
+					j++;
+				}
+				String na = a.substring(si, i).replaceFirst("^0+(?=.)", "");
+				String nb = b.substring(sj, j).replaceFirst("^0+(?=.)", "");
+				int c = na.length() != nb.length() ? Integer.compare(na.length(), nb.length()) : na.compareTo(nb);
+				if (c != 0) {
+					return c;
+				}
+			} else {
+				if (ca != cb) {
+					return Character.compare(ca, cb);
+				}
+				i++;
+				j++;
+			}
+		}
+		return Integer.compare(a.length() - i, b.length() - j);
+	}
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright © 2022 Dutch Arrow Software - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the Apache Software License 2.0.
+ *
+ * Created 14 Oct 2022.
+ */
+
+
+package nl.das.svnactions;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * What a {@link SqlScriptSync} brought into the local mirror. Paths are relative to the trunk SQL path.
+ */
+public final class SqlSyncResult {
+	private final long fromRevision;
+	private final long revision;
+	private final List<String> added;
+	private final List<String> modified;
+	private final List<String> deleted;
+
+	public SqlSyncResult(long fromRevision, long revision, List<String> added, List<String> modified, List<String> deleted) {
+		this.fromRevision = fromRevision;
+		this.revision = revision;
+		this.added = Collections.unmodifiableList(added);
+		this.modified = Collections.unmodifiableList(modified);
+		this.deleted = Collections.unmodifiableList(deleted);
+	}
+
+	/**
+	 * @return the revision of the mirror before the sync, 0 if it was empty
+	 */
+	public long getFromRevision() {
+		return this.fromRevision;
+	}
+
+	/**
+	 * @return the revision of the mirror after the sync
+	 */
+	public long getRevision() {
+		return this.revision;
+	}
+
+	public List<String> getAdded() {
+		return this.added;
+	}
+
+	public List<String> getModified() {
+		return this.modified;
+	}
+
+	public List<String> getDeleted() {
+		return this.deleted;
+	}
+
+	/**
+	 * @return the added and modified .sql files, in the order in which they are to be applied
+	 */
+	public List<String> getScriptsToApply() {
+		List<String> scripts = new ArrayList<>();
+		for (List<String> l : List.of(this.added, this.modified)) {
+			for (String p : l) {
+				if (p.toLowerCase().endsWith(".sql")) {
+					scripts.add(p);
+				}
+			}
+		}
+		scripts.sort(SqlScriptSync.SCRIPT_ORDER);
+		return scripts;
+	}
+
+	@Override
+	public String toString() {
+		return this.fromRevision + ".." + this.revision + ": " + this.added.size() + " added, " + this.modified.size() + " modified, " + this.deleted.size() + " deleted";
+	}
+}
@@ -9,35 +9,49 @@
 
 package nl.das.svnactions;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.StringReader;
-import java.io.UnsupportedEncodingException;
-import java.nio.file.FileVisitResult;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.DosFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributes;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.function.Consumer;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
 
 import javax.json.Json;
 import javax.json.JsonArray;
+import javax.json.JsonException;
 import javax.json.JsonObject;
 import javax.json.JsonValue;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.tmatesoft.svn.core.SVNCommitInfo;
 import org.tmatesoft.svn.core.SVNDepth;
 import org.tmatesoft.svn.core.SVNDirEntry;
@@ -46,16 +60,18 @@ import org.tmatesoft.svn.core.SVNLogEntry;
 import org.tmatesoft.svn.core.SVNLogEntryPath;
 import org.tmatesoft.svn.core.SVNMergeRange;
 import org.tmatesoft.svn.core.SVNMergeRangeList;
+import org.tmatesoft.svn.core.SVNProperties;
+import org.tmatesoft.svn.core.SVNProperty;
 import org.tmatesoft.svn.core.SVNURL;
-import org.tmatesoft.svn.core.auth.BasicAuthenticationManager;
-import org.tmatesoft.svn.core.auth.ISVNAuthenticationManager;
+import org.tmatesoft.svn.core.internal.util.SVNPathUtil;
+import org.tmatesoft.svn.core.io.SVNLocationSegment;
+import org.tmatesoft.svn.core.io.SVNRepository;
 import org.tmatesoft.svn.core.wc.SVNConflictChoice;
 import org.tmatesoft.svn.core.wc.SVNRevision;
 import org.tmatesoft.svn.core.wc.SVNStatusType;
 import org.tmatesoft.svn.core.wc2.SvnCheckout;
 import org.tmatesoft.svn.core.wc2.SvnCommit;
 import org.tmatesoft.svn.core.wc2.SvnCopySource;
-import org.tmatesoft.svn.core.wc2.SvnExport;
 import org.tmatesoft.svn.core.wc2.SvnGetInfo;
 import org.tmatesoft.svn.core.wc2.SvnGetMergeInfo;
 import org.tmatesoft.svn.core.wc2.SvnGetStatus;
@@ -63,7 +79,6 @@ import org.tmatesoft.svn.core.wc2.SvnInfo;
 import org.tmatesoft.svn.core.wc2.SvnList;
 import org.tmatesoft.svn.core.wc2.SvnLog;
 import org.tmatesoft.svn.core.wc2.SvnMerge;
-import org.tmatesoft.svn.core.wc2.SvnOperationFactory;
 import org.tmatesoft.svn.core.wc2.SvnRemoteCopy;
 import org.tmatesoft.svn.core.wc2.SvnRemoteDelete;
 import org.tmatesoft.svn.core.wc2.SvnResolve;
@@ -73,18 +88,27 @@ import org.tmatesoft.svn.core.wc2.SvnTarget;
 import org.tmatesoft.svn.core.wc2.SvnUpdate;
 
 /**
+ * The SVN actions on a NodeRED work folder.<br><br>
+ * An instance created with {@link #SvnActions(Properties)} owns its {@link SvnSession}, with the connections,
+ * the content store and the thread pools that are opened on the way, and must be closed (e.g. with
+ * try-with-resources). An instance on a shared session ({@link #SvnActions(SvnSession, String)}) leaves closing
+ * to the owner of the session.
  */
-public class SvnActions {
-	private Properties props;
-	private SvnOperationFactory svnOperationFactory;
+public class SvnActions implements AutoCloseable {
+	private static final Logger log = LoggerFactory.getLogger(SvnActions.class);
+	/** Windows cannot replace a file that is mapped */
+	private static final boolean MAP_WC_FILES = !System.getProperty("os.name", "").toLowerCase().startsWith("windows");
+
+	private SvnSession session;
+	private boolean ownsSession;
 	private SVNURL trunkUrl;
-	private SVNURL trunkSqlUrl;
 	private SVNURL branchBaseUrl;
 	private String workdir;
-	private String svnUser;
-	private String svnPswd;
-	private String branchUiPath;
-	private String trunkUiPath;
+	private final ReadWriteLock wcLock = new ReentrantReadWriteLock();
+	private final Map<String, String> uiPaths = new ConcurrentHashMap<>();
+	private volatile WCInfo wcInfo;
+	private boolean sparse;
+	private List<String> sparseIncludes;
 
 	/**
 	 * Constructor<br><br>
@@ -97,26 +121,66 @@ public class SvnActions {
 	 * <tr><td>path.branches</td><td>Path of the SVN branches (e.g. /svn/test/branches)</td></tr>
 	 * <tr><td>path.sql</td><td>Path to the SVN trunk of the SQL Scripts (e.g. /svn/test/trunk/sql)</td></tr>
 	 * <tr><td>workdir</td><td>Absolute path of the NodeRED work directory (e.g. /homes/tom/.node-red)</td></tr>
+	 * <tr><td>checkout.sparse</td><td>Check out only the NodeRED files instead of the whole branch (default false).
+	 * A merge first brings the work folder to full depth (see {@link #merge(boolean, String)}).</td></tr>
+	 * <tr><td>checkout.include</td><td>Comma separated files of a sparse checkout (default flows.json,package.json,package-lock.json).
+	 * The uibuilder/[uiPath]/src folder is always included.</td></tr>
 	 * </table>
 	 *
+	 * The instance owns its repository session, so it must be closed (see {@link #close()}).
+	 *
 	 * @param properties (see above)
 	 * @throws SVNException
 	 */
 	public SvnActions(Properties properties) {
-		this.props = properties;
-		try {
-			this.trunkUrl = SVNURL.parseURIEncoded(this.props.getProperty("repohost") + this.props.getProperty("path.trunk"));
-			this.branchBaseUrl = SVNURL.parseURIEncoded(this.props.getProperty("repohost") + this.props.getProperty("path.branches"));
-			this.trunkSqlUrl = SVNURL.parseURIEncoded(this.props.getProperty("repohost") + this.props.getProperty("path.sql"));
-		} catch (SVNException e) {
+		this(new SvnSession(properties), properties.getProperty("workdir"));
+		this.ownsSession = true;
+	}
+
+	/**
+	 * Constructor for a work directory that shares its repository connections with other work directories.
+	 * Normally created by the {@link SvnActionsService}.
+	 *
+	 * @param session the shared repository session
+	 * @param workdir Absolute path of the NodeRED work directory
+	 */
+	public SvnActions(SvnSession session, String workdir) {
+		this.session = session;
+		this.trunkUrl = session.getTrunkUrl();
+		this.branchBaseUrl = session.getBranchBaseUrl();
+		this.workdir = workdir;
+		Properties props = session.getProperties();
+		this.sparse = Boolean.parseBoolean(props.getProperty("checkout.sparse", "false"));
+		this.sparseIncludes = new ArrayList<>();
+		for (String inc : props.getProperty("checkout.include", "flows.json,package.json,package-lock.json").split(",")) {
+			if (!inc.trim().isEmpty()) {
+				this.sparseIncludes.add(inc.trim());
+			}
+		}
+		// Finish the removal of old work folders that was interrupted by a stop
+		if ((workdir != null) && Files.isDirectory(TrashReaper.getTrash(Paths.get(workdir)))) {
+			session.getTrashReaper().resume(TrashReaper.getTrash(Paths.get(workdir)));
+		}
+	}
+
+	public String getWorkdir() {
+		return this.workdir;
+	}
+
+	public SvnSession getSession() {
+		return this.session;
+	}
+
+	/**
+	 * Close the repository session if this instance created it; a shared session is left open.
+	 */
+	@Override
+	public void close() {
+		if (this.ownsSession) {
+			this.session.close();
 		}
-		this.workdir = this.props.getProperty("workdir");
-		this.svnUser = this.props.getProperty("username");
-		this.svnPswd = this.props.getProperty("password");
-		ISVNAuthenticationManager authManager = BasicAuthenticationManager.newInstance(this.svnUser, this.svnPswd.toCharArray());
-		this.svnOperationFactory = new SvnOperationFactory();
-		this.svnOperationFactory.setAuthenticationManager(authManager);
 	}
+
 	/**
 	 * Determines if in the trunk version work folder there are uncommitted changes in the NodeRED files:
 	 * <ul>
@@ -128,34 +192,44 @@ public class SvnActions {
 	 *
 	 * @return 0 if not dirty, > 0 dirty: bit 1=flow, bit 2=html, bit 3=js, bit 4=css
 	 * @throws SVNException
+	 * @throws IOException
 	 */
-	public int isWCDirty() throws SVNException {
+	public int isWCDirty() throws SVNException, IOException {
+		this.wcLock.readLock().lock();
+		try {
+			return isWCDirty(getWCUiPath());
+		} finally {
+			this.wcLock.readLock().unlock();
+		}
+	}
+
+	private int isWCDirty(String uiPath) throws SVNException {
 		int changes = 0;
 		List<SvnStatus> sts = new ArrayList<>();
-		SvnGetStatus status = this.svnOperationFactory.createGetStatus();
+		SvnGetStatus status = this.session.factory().createGetStatus();
 		status.addTarget(SvnTarget.fromFile(new File(this.workdir + "/flows.json")));
 		status.run(sts);
 		if (sts.get(0).getNodeStatus() == SVNStatusType.STATUS_MODIFIED) {
 			changes = 1;
 		}
-		if (Files.exists(Paths.get(this.workdir + "/uibuilder/" + this.trunkUiPath + "/src/index.html"))) {
+		if (Files.exists(Paths.get(this.workdir + "/uibuilder/" + uiPath + "/src/index.html"))) {
 			sts = new ArrayList<>();
-			status = this.svnOperationFactory.createGetStatus();
-			status.addTarget(SvnTarget.fromFile(new File(this.workdir + "/uibuilder/" + this.trunkUiPath + "/src/index.html")));
+			status = this.session.factory().createGetStatus();
+			status.addTarget(SvnTarget.fromFile(new File(this.workdir + "/uibuilder/" + uiPath + "/src/index.html")));
 			status.run(sts);
 			if (sts.get(0).getNodeStatus() == SVNStatusType.STATUS_MODIFIED) {
 				changes |= 2;
 			}
 			sts = new ArrayList<>();
-			status = this.svnOperationFactory.createGetStatus();
-			status.addTarget(SvnTarget.fromFile(new File(this.workdir + "/uibuilder/" + this.trunkUiPath + "/src/index.js")));
+			status = this.session.factory().createGetStatus();
+			status.addTarget(SvnTarget.fromFile(new File(this.workdir + "/uibuilder/" + uiPath + "/src/index.js")));
 			status.run(sts);
 			if (sts.get(0).getNodeStatus() == SVNStatusType.STATUS_MODIFIED) {
 				changes |= 4;
 			}
 			sts = new ArrayList<>();
-			status = this.svnOperationFactory.createGetStatus();
-			status.addTarget(SvnTarget.fromFile(new File(this.workdir + "/uibuilder/" + this.trunkUiPath + "/src/index.css")));
+			status = this.session.factory().createGetStatus();
+			status.addTarget(SvnTarget.fromFile(new File(this.workdir + "/uibuilder/" + uiPath + "/src/index.css")));
 			status.run(sts);
 			if (sts.get(0).getNodeStatus() == SVNStatusType.STATUS_MODIFIED) {
 				changes |= 8;
@@ -165,19 +239,92 @@ public class SvnActions {
 	}
 
 	public String getWCUrl() throws SVNException {
+		return getWCInfo().getUrl();
+	}
+
+	/**
+	 * Get the metadata of the working copy. It is read from the working copy once and kept until wc.db or
+	 * flows.json changes, or until an update, commit, merge or checkout of this SvnActions.
+	 *
+	 * @return the metadata
+	 * @throws SVNException
+	 */
+	public WCInfo getWCInfo() throws SVNException {
+		long[] stamp = getWCStamp();
+		WCInfo info = this.wcInfo;
+		if ((info != null) && Arrays.equals(info.getStamp(), stamp)) {
+			return info;
+		}
 		List<SvnInfo> infos = new ArrayList<>();
-		SvnGetInfo gi = this.svnOperationFactory.createGetInfo();
+		SvnGetInfo gi = this.session.factory().createGetInfo();
 		gi.addTarget(SvnTarget.fromFile(new File(this.workdir)));
-		gi.run(infos);
-		return infos.get(0).getUrl().toString();
+		String uiPath;
+		this.wcLock.readLock().lock();
+		try {
+			gi.run(infos);
+			try {
+				uiPath = getUiUrl(Utils.reader(mapWCFile("/flows.json")));
+			} catch (IOException | JsonException e) {
+				log.debug("No uibuilder path in {}/flows.json: {}", this.workdir, e.getMessage());
+				uiPath = "";
+			}
+		} finally {
+			this.wcLock.readLock().unlock();
+		}
+		SVNURL url = infos.get(0).getUrl();
+		info = new WCInfo(url.toString(), getBranchName(url), infos.get(0).getRevision(), uiPath, stamp);
+		this.wcInfo = info;
+		return info;
+	}
+
+	/**
+	 * The name of the branch the URL is in
+	 *
+	 * @return the branch name, "trunk" or null
+	 */
+	private String getBranchName(SVNURL url) {
+		String path = url.getPath();
+		String base = this.branchBaseUrl.getPath() + "/";
+		if (path.startsWith(base)) {
+			String name = path.substring(base.length());
+			return name.contains("/") ? name.substring(0, name.indexOf('/')) : name;
+		}
+		if (path.equals(this.trunkUrl.getPath()) || path.startsWith(this.trunkUrl.getPath() + "/")) {
+			return "trunk";
+		}
+		return null;
+	}
+
+	/**
+	 * Modification time and size of wc.db and flows.json. If they did not change, the metadata of the
+	 * working copy did not change.
+	 */
+	private long[] getWCStamp() {
+		long[] stamp = {-1, -1, -1, -1};
+		Path[] files = {Paths.get(this.workdir, ".svn", "wc.db"), Paths.get(this.workdir, "flows.json")};
+		for (int i = 0; i < files.length; i++) {
+			try {
+				BasicFileAttributes attrs = Files.readAttributes(files[i], BasicFileAttributes.class);
+				stamp[i * 2] = attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+				stamp[(i * 2) + 1] = attrs.size();
+			} catch (IOException e) {
+				// Not there (yet)
+			}
+		}
+		return stamp;
 	}
 
 	public List<String> getWCModifications() throws SVNException {
 		List<SvnStatus> sts = new ArrayList<>();
-		SvnGetStatus status = this.svnOperationFactory.createGetStatus();
+		SvnGetStatus status = this.session.factory().createGetStatus();
 		status.setDepth(SVNDepth.INFINITY);
 		status.addTarget(SvnTarget.fromFile(new File(this.workdir)));
-		status.run(sts);
+		this.wcLock.readLock().lock();
+		try {
+			status.run(sts);
+		} finally {
+			this.wcLock.readLock().unlock();
+		}
 		List<String> dirtyPaths = new ArrayList<>();
 		for ( SvnStatus s : sts) {
 			if (	(s.getNodeStatus() == SVNStatusType.STATUS_MODIFIED) ||
@@ -191,11 +338,7 @@ public class SvnActions {
 	}
 
 	public long getLatestWCRevision() throws SVNException {
-		List<SvnInfo> infos = new ArrayList<>();
-		SvnGetInfo gi = this.svnOperationFactory.createGetInfo();
-		gi.addTarget(SvnTarget.fromFile(new File(this.workdir)));
-		gi.run(infos);
-		return infos.get(0).getRevision();
+		return getWCInfo().getRevision();
 	}
 
 	/**
@@ -207,7 +350,7 @@ public class SvnActions {
 	 */
 	public List<String> getAllBranches() throws SVNException, IOException {
 		List<String> brs = new ArrayList<>();
-		SvnList lst = this.svnOperationFactory.createList();
+		SvnList lst = this.session.factory().createList();
 		lst.addTarget(SvnTarget.fromURL(this.branchBaseUrl));
 		lst.setDepth(SVNDepth.IMMEDIATES);
 		lst.setRevision(SVNRevision.HEAD);
@@ -224,7 +367,7 @@ public class SvnActions {
 
 	public List<String> getMyBranches(String user) throws SVNException {
 		List<String> myBranches = new ArrayList<>();
-		SvnList lst = this.svnOperationFactory.createList();
+		SvnList lst = this.session.factory().createList();
 		lst.addTarget(SvnTarget.fromURL(this.branchBaseUrl));
 		lst.setDepth(SVNDepth.IMMEDIATES);
 		lst.setRevision(SVNRevision.HEAD);
@@ -240,7 +383,7 @@ public class SvnActions {
 	}
 
 	public void createBranch(String name) throws Exception {
-		SvnRemoteCopy remoteCopy = this.svnOperationFactory.createRemoteCopy();
+		SvnRemoteCopy remoteCopy = this.session.factory().createRemoteCopy();
 		SVNURL brurl = this.branchBaseUrl.appendPath(name, true);
 		SVNURL trurl = this.trunkUrl;
 		SvnCopySource src = SvnCopySource.create(SvnTarget.fromURL(trurl), SVNRevision.HEAD);
@@ -250,56 +393,45 @@ public class SvnActions {
 		remoteCopy.setMakeParents(true);
 		remoteCopy.run();
 
-		// Checkout branch in workdir
-		// Clear work folder
-		SimpleFileVisitor<Path> visitor = new SimpleFileVisitor<Path>() {
-
-			@Override
-			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-				Files.delete(file);
-				return FileVisitResult.CONTINUE;
-			}
-
-			@Override
-			public FileVisitResult visitFileFailed(Path file, IOException exc) throws IOException {
-				Files.delete(file);
-				return FileVisitResult.CONTINUE;
-			}
+		this.wcLock.writeLock().lock();
+		try {
+			checkoutBranch(brurl);
+		} finally {
+			this.wcInfo = null;
+			this.wcLock.writeLock().unlock();
+		}
+	}
 
-			@Override
-			public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
-				if (exc != null) {
-					throw exc;
-				}
-				Files.delete(dir);
-				return FileVisitResult.CONTINUE;
-			}
-		};
-		Files.walkFileTree(Paths.get(this.workdir), visitor);
+	private void checkoutBranch(SVNURL brurl) throws Exception {
+		// Clear work folder; the old content is deleted in the background
+		this.session.getTrashReaper().discard(Paths.get(this.workdir));
 
 		// Checkout branch in workdir
-		SvnCheckout checkout = this.svnOperationFactory.createCheckout();
+		SvnCheckout checkout = this.session.factory().createCheckout();
 		checkout.addTarget(SvnTarget.fromFile(new File(this.workdir)));
 		checkout.setSource(SvnTarget.fromURL(brurl));
+		if (this.sparse) {
+			checkout.setDepth(SVNDepth.EMPTY);
+		}
 		checkout.run();
+		if (this.sparse) {
+			SvnUpdate update = this.session.factory().createUpdate();
+			for (String inc : this.sparseIncludes) {
+				update.addTarget(SvnTarget.fromFile(new File(this.workdir + "/" + inc)));
+			}
+			update.setMakeParents(true);
+			update.run();
+			expandSparseUi();
+		}
 		// Run "npm install" in workdir
-		boolean isWindows = System.getProperty("os.name").toLowerCase().startsWith("windows");
-		ProcessBuilder builder = new ProcessBuilder();
-		if (isWindows) {
-		    builder.command("cmd.exe", "/c", "npm install");
-		} else {
-		    builder.command("sh", "-c", "npm install");
+		ProcessResult npm = this.session.getProcessRunner().run(new File(this.workdir), ProcessRunner.shell("npm install"));
+		if (!npm.isSuccess()) {
+			throw new IOException(npm + " in " + this.workdir + (npm.getErrors().isEmpty() ? "" : ": " + String.join("\n", npm.getErrors())));
 		}
-		builder.directory(new File(this.workdir));
-		Process process = builder.start();
-		StreamGobbler streamGobbler = new StreamGobbler(process.getInputStream(), l -> {});
-		Executors.newSingleThreadExecutor().submit(streamGobbler);
-		int exitCode = process.waitFor();
-		assert exitCode == 0;
 	}
 
 	public void removeBranch(String name) throws SVNException {
-		SvnRemoteDelete remoteDel = this.svnOperationFactory.createRemoteDelete();
+		SvnRemoteDelete remoteDel = this.session.factory().createRemoteDelete();
 		SVNURL brurl = this.branchBaseUrl.appendPath(name, true);
 		remoteDel.addTarget(SvnTarget.fromURL(brurl));
 		remoteDel.setCommitMessage("No longer needed");
@@ -313,10 +445,16 @@ public class SvnActions {
 	 * @param type 'f' (flows.json), 'h' (index.html), 'j' (index.js), 'c' (index.css)
 	 * @return
 	 * @throws SVNException
+	 * @throws IOException
 	 */
-	public List<Long> getAllRevisionNumbers(String env, char type) throws SVNException {
+	public List<Long> getAllRevisionNumbers(String env, char type) throws SVNException, IOException {
 		List<Long> revs = new ArrayList<>();
-		SvnLog log = this.svnOperationFactory.createLog();
+		SvnLog log = this.session.factory().createLog();
+		String uiPath = type == 'f' ? "" : getUiPath(env, -1);
+		if ((type != 'f') && uiPath.isEmpty()) {
+			// No uibuilder node, so no UI files
+			return revs;
+		}
 		try {
 			if (env.equalsIgnoreCase("trunk")) {
 				switch (type) {
@@ -325,15 +463,15 @@ public class SvnActions {
 					break;
 				}
 				case 'h': {
-					log.setSingleTarget(SvnTarget.fromURL(this.trunkUrl.appendPath("uibuilder/" + this.trunkUiPath + "/src/index.html", false)));
+					log.setSingleTarget(SvnTarget.fromURL(this.trunkUrl.appendPath("uibuilder/" + uiPath + "/src/index.html", false)));
 					break;
 				}
 				case 'j': {
-					log.setSingleTarget(SvnTarget.fromURL(this.trunkUrl.appendPath("uibuilder/" + this.trunkUiPath + "/src/index.js", false)));
+					log.setSingleTarget(SvnTarget.fromURL(this.trunkUrl.appendPath("uibuilder/" + uiPath + "/src/index.js", false)));
 					break;
 				}
 				case 'c': {
-					log.setSingleTarget(SvnTarget.fromURL(this.trunkUrl.appendPath("uibuilder/" + this.trunkUiPath + "/src/index.css", false)));
+					log.setSingleTarget(SvnTarget.fromURL(this.trunkUrl.appendPath("uibuilder/" + uiPath + "/src/index.css", false)));
 					break;
 				}
 				}
@@ -344,19 +482,18 @@ public class SvnActions {
 					break;
 				}
 				case 'h': {
-					log.setSingleTarget(SvnTarget.fromURL(this.branchBaseUrl.appendPath(env + "/uibuilder/" + this.branchUiPath + "/src/index.html", false)));
+					log.setSingleTarget(SvnTarget.fromURL(this.branchBaseUrl.appendPath(env + "/uibuilder/" + uiPath + "/src/index.html", false)));
 					break;
 				}
 				case 'j': {
-					log.setSingleTarget(SvnTarget.fromURL(this.branchBaseUrl.appendPath(env + "/uibuilder/" + this.branchUiPath + "/src/index.js", false)));
+					log.setSingleTarget(SvnTarget.fromURL(this.branchBaseUrl.appendPath(env + "/uibuilder/" + uiPath + "/src/index.js", false)));
 					break;
 				}
 				case 'c': {
-					log.setSingleTarget(SvnTarget.fromURL(this.branchBaseUrl.appendPath(env + "/uibuilder/" + this.branchUiPath + "/src/index.css", false)));
+					log.setSingleTarget(SvnTarget.fromURL(this.branchBaseUrl.appendPath(env + "/uibuilder/" + uiPath + "/src/index.css", false)));
 					break;
 				}
 				}
-				log.setSingleTarget(SvnTarget.fromURL(this.branchBaseUrl.appendPath(env + "/flows.json", false)));
 			}
 			log.setRevisionRanges(Collections.singleton(SvnRevisionRange.create(SVNRevision.create(1), SVNRevision.HEAD)));
 			Collection<SVNLogEntry> les = log.run(null);
@@ -364,11 +501,8 @@ public class SvnActions {
 				revs.add(le.getRevision());
 			}
 		} catch (SVNException e) {
-//			System.out.println("getAllRevisionNumbers: " + e.getMessage());
-			if (!(e.getMessage().contains("uibuilder") &&
-					(e.getMessage().contains("non-existent") ||
-					 e.getMessage().contains("was not found.") ||
-					 e.getMessage().contains("path not found:")))) {
+			// Only the UI files may be missing
+			if ((type == 'f') || !SvnErrors.isNotFound(e)) {
 				throw e;
 			}
 		}
@@ -386,56 +520,52 @@ public class SvnActions {
 	 *
 	 * @return Array of 4 longs
 	 * @throws SVNException
-	 * @throws UnsupportedEncodingException
+	 * @throws IOException
 	 */
-	public long[] getLatestTrunkRevisions() throws SVNException, UnsupportedEncodingException {
+	public long[] getLatestTrunkRevisions() throws SVNException, IOException {
 		// flows.json, index.html, index.js, index.css
 		long[] rev = {0,0,0,0};
 		List<SvnInfo> infos = new ArrayList<>();
-		SvnGetInfo gi = this.svnOperationFactory.createGetInfo();
+		SvnGetInfo gi = this.session.factory().createGetInfo();
 		gi.addTarget(SvnTarget.fromURL(this.trunkUrl.appendPath("flows.json", false)));
 		gi.run(infos);
 		rev[0] = infos.get(infos.size() - 1).getLastChangedRevision();
+		String uiPath = getUiPath("trunk", rev[0]);
+		if (uiPath.isEmpty()) {
+			// No uibuilder node, so no UI files
+			return rev;
+		}
 		try {
 			infos = new ArrayList<>();
-			gi = this.svnOperationFactory.createGetInfo();
-			gi.addTarget(SvnTarget.fromURL(this.trunkUrl.appendPath("/uibuilder/" + this.trunkUiPath + "/src/index.html", false)));
+			gi = this.session.factory().createGetInfo();
+			gi.addTarget(SvnTarget.fromURL(this.trunkUrl.appendPath("/uibuilder/" + uiPath + "/src/index.html", false)));
 			infos = new ArrayList<>();
 			gi.run(infos);
 			rev[1] = infos.get(infos.size() - 1).getLastChangedRevision();
 		} catch (SVNException e) {
-			if (!(e.getMessage().contains("uibuilder") &&
-					(e.getMessage().contains("non-existent") ||
-					 e.getMessage().contains("was not found.") ||
-					 e.getMessage().contains("path not found:")))) {
+			if (!SvnErrors.isNotFound(e)) {
 				throw e;
 			}
 		}
 		try {
-			gi = this.svnOperationFactory.createGetInfo();
-			gi.addTarget(SvnTarget.fromURL(this.trunkUrl.appendPath("/uibuilder/" + this.trunkUiPath + "/src/index.js", false)));
+			gi = this.session.factory().createGetInfo();
+			gi.addTarget(SvnTarget.fromURL(this.trunkUrl.appendPath("/uibuilder/" + uiPath + "/src/index.js", false)));
 			infos = new ArrayList<>();
 			gi.run(infos);
 			rev[2] = infos.get(infos.size() - 1).getLastChangedRevision();
 		} catch (SVNException e) {
-			if (!(e.getMessage().contains("uibuilder") &&
-					(e.getMessage().contains("non-existent") ||
-					 e.getMessage().contains("was not found.") ||
-					 e.getMessage().contains("path not found:")))) {
+			if (!SvnErrors.isNotFound(e)) {
 				throw e;
 			}
 		}
 		try {
-			gi = this.svnOperationFactory.createGetInfo();
-			gi.addTarget(SvnTarget.fromURL(this.trunkUrl.appendPath("/uibuilder/" + this.trunkUiPath + "/src/index.css", false)));
+			gi = this.session.factory().createGetInfo();
+			gi.addTarget(SvnTarget.fromURL(this.trunkUrl.appendPath("/uibuilder/" + uiPath + "/src/index.css", false)));
 			infos = new ArrayList<>();
 			gi.run(infos);
 			rev[3] = infos.get(infos.size() - 1).getLastChangedRevision();
 		} catch (SVNException e) {
-			if (!(e.getMessage().contains("uibuilder") &&
-					(e.getMessage().contains("non-existent") ||
-					 e.getMessage().contains("was not found.") ||
-					 e.getMessage().contains("path not found:")))) {
+			if (!SvnErrors.isNotFound(e)) {
 				throw e;
 			}
 		}
@@ -450,7 +580,7 @@ public class SvnActions {
 	 */
 	public long getLatestTrunkRevision() throws SVNException {
 		List<SvnInfo> infos = new ArrayList<>();
-		SvnGetInfo gi = this.svnOperationFactory.createGetInfo();
+		SvnGetInfo gi = this.session.factory().createGetInfo();
 		gi.addTarget(SvnTarget.fromURL(this.trunkUrl));
 		gi.run(infos);
 		return infos.get(infos.size() - 1).getLastChangedRevision();
@@ -464,12 +594,50 @@ public class SvnActions {
 	 */
 	public long getLatestBranchRevision(String branchName) throws SVNException {
 		List<SvnInfo> infos = new ArrayList<>();
-		SvnGetInfo gi = this.svnOperationFactory.createGetInfo();
+		SvnGetInfo gi = this.session.factory().createGetInfo();
 		gi.addTarget(SvnTarget.fromURL(this.branchBaseUrl.appendPath(branchName, false)));
 		gi.run(infos);
 		return infos.get(infos.size() - 1).getLastChangedRevision();
 	}
 
+	/**
+	 * Get the revision in which a file was last changed, as seen from the given revision.
+	 *
+	 * @param env "trunk" or branchName
+	 * @param path path of the file relative to the trunk or branch (e.g. flows.json)
+	 * @param revision -1 (HEAD) or the revision number
+	 * @return revision number
+	 * @throws SVNException
+	 */
+	public long getLastChangedRevision(String env, String path, long revision) throws SVNException {
+		SVNURL url = env.equalsIgnoreCase("trunk") ? this.trunkUrl.appendPath(path, false) : this.branchBaseUrl.appendPath(env + "/" + path, false);
+		if (this.session.isMissing(url, revision)) {
+			throw SvnErrors.notFound(url, revision);
+		}
+		SvnGetInfo gi = this.session.factory().createGetInfo();
+		gi.setSingleTarget(SvnTarget.fromURL(url, revision == -1 ? SVNRevision.HEAD : SVNRevision.create(revision)));
+		try {
+			return gi.run().getLastChangedRevision();
+		} catch (SVNException e) {
+			if (SvnErrors.isNotFound(e)) {
+				this.session.setMissing(url, revision);
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Start fetching the flows.json and the UI files of a branch in the background (see {@link Prefetcher}).
+	 * Call it as soon as the branch is selected; the next {@link #getLatestBranchRevisions(String)} and the
+	 * content getters with the revisions it returns are then served from memory.
+	 *
+	 * @param branchName name of the branch
+	 * @return the future of the revision numbers of {@link #getLatestBranchRevisions(String)}
+	 */
+	public CompletableFuture<long[]> prefetchBranch(String branchName) {
+		return this.session.getPrefetcher().prefetchBranch(branchName);
+	}
+
 	/**
 	 * From the branch-repo get the latest revision numbers of the NodeRED files:
 	 * <ul>
@@ -478,55 +646,55 @@ public class SvnActions {
 	 * <li>/uibuilder/[uiPath]/src/index.js</li>
 	 * <li>/uibuilder/[uiPath]/src/index.css</li>
 	 * </ul>
+	 * The numbers of a {@link #prefetchBranch(String)} are used when there is one.
 	 *
 	 * @return Array of 4 longs
 	 * @throws SVNException
-	 * @throws UnsupportedEncodingException
+	 * @throws IOException
 	 */
-	public long[] getLatestBranchRevisions(String branchName) throws SVNException, UnsupportedEncodingException {
+	public long[] getLatestBranchRevisions(String branchName) throws SVNException, IOException {
+		long[] prefetched = this.session.getPrefetcher().takeRevisions(branchName);
+		if (prefetched != null) {
+			return prefetched;
+		}
 		// flows.json, index.html, index.js, index.css
 		long[] rev = {0,0,0,0};
-		SvnGetInfo gi = this.svnOperationFactory.createGetInfo();
+		SvnGetInfo gi = this.session.factory().createGetInfo();
 		gi.addTarget(SvnTarget.fromURL(this.branchBaseUrl.appendPath(branchName + "/flows.json", false) ));
 		SvnInfo info = gi.run();
 		rev[0] = info.getLastChangedRevision();
+		String uiPath = getUiPath(branchName, rev[0]);
+		if (uiPath.isEmpty()) {
+			// No uibuilder node, so no UI files
+			return rev;
+		}
 		try {
-			gi = this.svnOperationFactory.createGetInfo();
-			gi.addTarget(SvnTarget.fromURL(this.branchBaseUrl.appendPath(branchName + "/uibuilder/" + this.branchUiPath + "/src/index.html", false)));
+			gi = this.session.factory().createGetInfo();
+			gi.addTarget(SvnTarget.fromURL(this.branchBaseUrl.appendPath(branchName + "/uibuilder/" + uiPath + "/src/index.html", false)));
 			info = gi.run();
 			rev[1] = info.getLastChangedRevision();
 		} catch (SVNException e) {
-//			System.out.println("getLatestBranchRevisions: " + e.getMessage());
-			if (!(e.getMessage().contains("uibuilder") &&
-					(e.getMessage().contains("non-existent") ||
-					 e.getMessage().contains("was not found.") ||
-					 e.getMessage().contains("path not found:")))) {
+			if (!SvnErrors.isNotFound(e)) {
 				throw e;
 			}
 		}
 		try {
-			gi = this.svnOperationFactory.createGetInfo();
-			gi.addTarget(SvnTarget.fromURL(this.branchBaseUrl.appendPath(branchName + "/uibuilder/" + this.branchUiPath + "/src/index.js", false)));
+			gi = this.session.factory().createGetInfo();
+			gi.addTarget(SvnTarget.fromURL(this.branchBaseUrl.appendPath(branchName + "/uibuilder/" + uiPath + "/src/index.js", false)));
 			info = gi.run();
 			rev[2] = info.getLastChangedRevision();
 			} catch (SVNException e) {
-				if (!(e.getMessage().contains("uibuilder") &&
-						(e.getMessage().contains("non-existent") ||
-						 e.getMessage().contains("was not found.") ||
-						 e.getMessage().contains("path not found:")))) {
+				if (!SvnErrors.isNotFound(e)) {
 					throw e;
 				}
 			}
 		try {
-			gi = this.svnOperationFactory.createGetInfo();
-			gi.addTarget(SvnTarget.fromURL(this.branchBaseUrl.appendPath(branchName + "/uibuilder/" + this.branchUiPath + "/src/index.css", false)));
+			gi = this.session.factory().createGetInfo();
+			gi.addTarget(SvnTarget.fromURL(this.branchBaseUrl.appendPath(branchName + "/uibuilder/" + uiPath + "/src/index.css", false)));
 			info = gi.run();
 			rev[3] = info.getLastChangedRevision();
 			} catch (SVNException e) {
-				if (!(e.getMessage().contains("uibuilder") &&
-						(e.getMessage().contains("non-existent") ||
-						 e.getMessage().contains("was not found.") ||
-						 e.getMessage().contains("path not found:")))) {
+				if (!SvnErrors.isNotFound(e)) {
 					throw e;
 				}
 		}
@@ -542,13 +710,23 @@ public class SvnActions {
 	 */
 	public long getLatestTrunkRevInBranch(boolean fromWC, String branchName) throws SVNException {
 		long rev = 0;
-		SvnGetMergeInfo gmi = this.svnOperationFactory.createGetMergeInfo();
+		SvnGetMergeInfo gmi = this.session.factory().createGetMergeInfo();
 		if(fromWC) {
 			gmi.setSingleTarget(SvnTarget.fromFile(new File(this.workdir)));
 		} else {
 			gmi.setSingleTarget(SvnTarget.fromURL(this.branchBaseUrl.appendPath(branchName, true)));
 		}
-		Map<SVNURL,SVNMergeRangeList> map = gmi.run();
+		Map<SVNURL,SVNMergeRangeList> map;
+		if (fromWC) {
+			this.wcLock.readLock().lock();
+			try {
+				map = gmi.run();
+			} finally {
+				this.wcLock.readLock().unlock();
+			}
+		} else {
+			map = gmi.run();
+		}
 		if (map != null) {
 			for (SVNURL url : map.keySet()) {
 				if (url.toString().equalsIgnoreCase(this.trunkUrl.toString())) {
@@ -572,9 +750,9 @@ public class SvnActions {
 	 * @throws SVNException
 	 */
 	private long getFirstTrunkRevInBranch(boolean fromWC, String branchName) throws SVNException {
-		SvnLog log = this.svnOperationFactory.createLog();
+		SvnLog log = this.session.factory().createLog();
 		if (fromWC) {
-			log.addTarget(SvnTarget.fromFile(new File(this.props.getProperty("workdir")), SVNRevision.HEAD));
+			log.addTarget(SvnTarget.fromFile(new File(this.workdir), SVNRevision.HEAD));
 		} else {
 			log.addTarget(SvnTarget.fromURL(this.branchBaseUrl.appendPath(branchName, true), SVNRevision.HEAD));
 		}
@@ -596,6 +774,151 @@ public class SvnActions {
 		return rev;
 	}
 
+	/**
+	 * Determine for a number of branches how far they are behind the trunk: which trunk revisions that changed
+	 * flows.json or the uibuilder index files are not merged into the branch.<br>
+	 * A trunk revision counts from the revision the branch was copied from, so a cherry-picked revision does not hide
+	 * the older ones. The merge info of the branches is fetched in parallel and the trunk log is fetched only once,
+	 * from the oldest copy revision of the branches.
+	 *
+	 * @param branches names of the branches, or null for all branches
+	 * @return the merge lag per branch, in the order of the given branches
+	 * @throws SVNException
+	 * @throws IOException
+	 */
+	public Map<String, MergeLag> getMergeLag(Collection<String> branches) throws SVNException, IOException {
+		if (branches == null) {
+			branches = getAllBranches();
+		}
+		int threads = Integer.parseInt(this.session.getProperties().getProperty("report.threads", "8"));
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, branches.size())));
+		Map<String, Future<BranchMerges>> futures = new LinkedHashMap<>();
+		Map<String, BranchMerges> merged = new LinkedHashMap<>();
+		try {
+			for (String branch : branches) {
+				futures.put(branch, executor.submit(() -> getBranchMerges(branch)));
+			}
+			for (Map.Entry<String, Future<BranchMerges>> f : futures.entrySet()) {
+				merged.put(f.getKey(), f.getValue().get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof SVNException) {
+				throw (SVNException) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+
+		// One log of the trunk, from the oldest copy revision of the branches
+		long from = Long.MAX_VALUE;
+		for (BranchMerges bm : merged.values()) {
+			from = Math.min(from, bm.base + 1);
+		}
+		List<Long> trunkRevs = new ArrayList<>();
+		if (!merged.isEmpty()) {
+			String trunkPath = this.session.getRepositoryPath(this.trunkUrl);
+			Pattern uiFile = Pattern.compile(Pattern.quote(trunkPath) + "/uibuilder/[^/]+/src/index\\.(html|js|css)");
+			SVNRepository repository = this.session.repository(this.trunkUrl);
+			long latest = repository.getLatestRevision();
+			if (from <= latest) {
+				repository.log(new String[] {""}, from, latest, true, false, le -> {
+					for (String path : le.getChangedPaths().keySet()) {
+						if (path.equals(trunkPath + "/flows.json") || uiFile.matcher(path).matches()) {
+							trunkRevs.add(le.getRevision());
+							break;
+						}
+					}
+				});
+			}
+		}
+
+		Map<String, MergeLag> lags = new LinkedHashMap<>();
+		for (Map.Entry<String, BranchMerges> m : merged.entrySet()) {
+			lags.put(m.getKey(), getMergeLag(m.getKey(), m.getValue().base, m.getValue().ranges, trunkRevs));
+		}
+		return lags;
+	}
+
+	/**
+	 * Determine the merge lag of a branch
+	 *
+	 * @param branch name of the branch
+	 * @param base the trunk revision the branch was copied from
+	 * @param ranges the ranges of trunk revisions that were merged into the branch
+	 * @param trunkRevs the trunk revisions that changed the NodeRED files, oldest first
+	 * @return the merge lag
+	 */
+	static MergeLag getMergeLag(String branch, long base, List<SVNMergeRange> ranges, List<Long> trunkRevs) {
+		long latestMerged = base;
+		for (SVNMergeRange r : ranges) {
+			latestMerged = Math.max(latestMerged, r.getEndRevision());
+		}
+		List<Long> unmerged = new ArrayList<>();
+		for (long rev : trunkRevs) {
+			if (rev > base && !contains(ranges, rev)) {
+				unmerged.add(rev);
+			}
+		}
+		return new MergeLag(branch, latestMerged, unmerged);
+	}
+
+	/**
+	 * The trunk revision a branch was copied from and the trunk revisions merged into it since
+	 */
+	private static final class BranchMerges {
+		private final long base;
+		private final List<SVNMergeRange> ranges;
+
+		private BranchMerges(long base, List<SVNMergeRange> ranges) {
+			this.base = base;
+			this.ranges = ranges;
+		}
+	}
+
+	private BranchMerges getBranchMerges(String branch) throws SVNException {
+		List<SVNMergeRange> ranges = new ArrayList<>();
+		SvnGetMergeInfo gmi = this.session.factory().createGetMergeInfo();
+		gmi.setSingleTarget(SvnTarget.fromURL(this.branchBaseUrl.appendPath(branch, true)));
+		Map<SVNURL,SVNMergeRangeList> map = gmi.run();
+		if (map != null) {
+			for (SVNURL url : map.keySet()) {
+				if (url.toString().equalsIgnoreCase(this.trunkUrl.toString())) {
+					ranges.addAll(map.get(url).getRangesAsList());
+				}
+			}
+		}
+		return new BranchMerges(getBranchCopyRevision(branch), ranges);
+	}
+
+	/**
+	 * Determine the revision a branch was copied from with one call, independent of the number of commits on the branch
+	 *
+	 * @return the copy revision, or the revision that created the branch if it is not a copy
+	 * @throws SVNException
+	 */
+	private long getBranchCopyRevision(String branch) throws SVNException {
+		SVNRepository repository = this.session.repository(this.branchBaseUrl.appendPath(branch, false));
+		List<SVNLocationSegment> segments = new ArrayList<>(repository.getLocationSegments("", -1, -1, 0));
+		segments.sort((a, b) -> Long.compare(b.getStartRevision(), a.getStartRevision()));
+		if ((segments.size() > 1) && (segments.get(1).getPath() != null)) {
+			return segments.get(1).getEndRevision();
+		}
+		return segments.isEmpty() ? 0 : segments.get(0).getStartRevision();
+	}
+
+	private static boolean contains(List<SVNMergeRange> ranges, long rev) {
+		for (SVNMergeRange r : ranges) {
+			if (rev > r.getStartRevision() && rev <= r.getEndRevision()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
 	/**
 	 * Get the flow.json content of the branch in the work folder.
 	 *
@@ -607,26 +930,37 @@ public class SvnActions {
 	 * @throws SVNException
 	 */
 	public String getBranchFlow(String branch, long revno, boolean fromWC) throws IOException, SVNException {
-		String content = "";
+		return decode(getBranchFlowBuffer(branch, revno, fromWC));
+	}
+
+	/**
+	 * Get the flow.json content of the branch without decoding it (see {@link #getTrunkFlowBuffer(long)}).
+	 *
+	 * @param branch name of the branch
+	 * @param revno revision number
+	 * @param fromWC from Working Copy (true) or Repository (false)?
+	 * @return the content of the flows.json file (read-only)
+	 * @throws IOException
+	 * @throws SVNException
+	 */
+	public ByteBuffer getBranchFlowBuffer(String branch, long revno, boolean fromWC) throws IOException, SVNException {
+		ByteBuffer content;
 		if (fromWC) {
-			content = new String(Files.readAllBytes(Paths.get(this.workdir + "/flows.json")));
+			content = mapWCFile("/flows.json");
 		} else {
-			File tmpdir = Files.createTempDirectory("nodered-").toFile();
-			SvnExport export = this.svnOperationFactory.createExport();
-			export.setSingleTarget(SvnTarget.fromFile(tmpdir));
-			export.setForce(true);
+			SVNURL url = this.branchBaseUrl.appendPath(branch + "/flows.json", false);
 			try {
-				export.setSource(SvnTarget.fromURL(this.branchBaseUrl.appendPath(branch + "/flows.json", false), SVNRevision.create(revno)));
-				export.run();
+				content = fetch(url, revno);
 			} catch (SVNException e) {
-				if (!e.getMessage().startsWith("svn: E170000:")) {
+				if (!SvnErrors.isNotFound(e)) {
 					throw e;
 				}
-				export.setSource(SvnTarget.fromURL(this.branchBaseUrl.appendPath(branch + "/flows.json", false), SVNRevision.create(-1)));
-				export.run();
+				content = fetch(url, -1);
+				revno = -1;
+			}
+			if (revno > 0) {
+				putUiPath(branch, revno, getUiUrl(Utils.reader(content)));
 			}
-			content = new String(Files.readAllBytes(Paths.get(tmpdir.getAbsolutePath() + "/flows.json")));
-			this.branchUiPath = getUiUrl(content);
 		}
 		return content;
 	}
@@ -640,77 +974,106 @@ public class SvnActions {
 	 * @throws IOException
 	 */
 	public String getTrunkFlow(long revision) throws SVNException, IOException {
-		String content = "";
+		return decode(getTrunkFlowBuffer(revision));
+	}
+
+	/**
+	 * Get the content of the flows.json file in the trunk without decoding it.
+	 * A file of the work folder is memory-mapped, a file of the repository is read into one buffer
+	 * (or inflated from the content store). Use {@link Utils#reader(ByteBuffer)} to parse it and
+	 * {@link Utils#transfer(ByteBuffer, java.nio.channels.WritableByteChannel)} to send it on.
+	 *
+	 * @param revision Revision number of the flows.json file
+	 * @return the content of the flows.json file (read-only)
+	 * @throws SVNException
+	 * @throws IOException
+	 */
+	public ByteBuffer getTrunkFlowBuffer(long revision) throws SVNException, IOException {
+		ByteBuffer content;
 		if (revision == 0) {
 			// Get Workdir file
-			content = new String(Files.readAllBytes(Paths.get(this.workdir + "/flows.json")));
+			content = mapWCFile("/flows.json");
 		} else {
-			File tmpdir = Files.createTempDirectory("nodered-").toFile();
-			SvnExport export = this.svnOperationFactory.createExport();
-			export.setSingleTarget(SvnTarget.fromFile(tmpdir));
-			export.setForce(true);
+			SVNURL url = this.trunkUrl.appendPath("flows.json", false);
 			if (revision == -1) {
 				// Get HEAD revision of flows.json in repo
-				export.setSource(SvnTarget.fromURL(this.trunkUrl.appendPath("flows.json", false), SVNRevision.HEAD));
-				export.run();
+				content = fetch(url, -1);
 			} else {
-				// Get given revision of flows.json in repo
+				// Get given revision of flows.json from the store or the repo
 				try {
-					export.setSource(SvnTarget.fromURL(this.trunkUrl.appendPath("flows.json", false), SVNRevision.create(revision)));
-					export.run();
+					content = fetch(url, revision);
 				} catch (SVNException e) {
-					if (!e.getMessage().startsWith("svn: E170000:")) {
+					if (!SvnErrors.isNotFound(e)) {
 						throw e;
 					}
-					export.setSource(SvnTarget.fromURL(this.trunkUrl.appendPath("flows.json", false), SVNRevision.create(-1)));
-					export.run();
+					content = fetch(url, -1);
+					revision = -1;
 				}
 			}
-			content = new String(Files.readAllBytes(Paths.get(tmpdir.getAbsolutePath() + "/flows.json")));
-			this.trunkUiPath = getUiUrl(content);
+			if (revision > 0) {
+				putUiPath("trunk", revision, getUiUrl(Utils.reader(content)));
+			}
 		}
 		return content;
 	}
 
 	/**
 	 * Get the content of the index.[type] file of the branch in the work folder.
+	 * The UI path is taken from the flows.json of the same revision.
 	 *
 	 * @param type "html", "js" or "css"
 	 * @return the content of the file
 	 * @throws SVNException
 	 */
 	public String getBranchUi(String type, String branch, long revno, boolean fromWC) throws SVNException {
-		String content = "";
 		try {
-			if (fromWC) {
-				content = new String(Files.readAllBytes(Paths.get(this.workdir + "/uibuilder/" + this.branchUiPath + "/src/index." + type)));
-			} else {
-				try {
-					File tmpdir = Files.createTempDirectory("nodered-").toFile();
-					SvnExport export = this.svnOperationFactory.createExport();
-					export.setSingleTarget(SvnTarget.fromFile(tmpdir));
-					export.setForce(true);
-					export.setSource(SvnTarget.fromURL(this.branchBaseUrl.appendPath(branch + "/uibuilder/" + this.branchUiPath + "/src/index." + type, false), SVNRevision.create(revno)));
-					export.run();
-					content = new String(Files.readAllBytes(Paths.get(tmpdir.getAbsolutePath() + "/index." + type)));
-				} catch (SVNException e) {
-					if (!(e.getMessage().contains("uibuilder") &&
-							(e.getMessage().contains("non-existent") ||
-							 e.getMessage().contains("doesn't exist") ||
-							 e.getMessage().contains("was not found.") ||
-							 e.getMessage().contains("path not found:")))) {
-						throw e;
-					}
-				}
-			}
+			return getBranchUi(type, branch, revno, fromWC, getUiPath(branch, fromWC ? 0 : revno));
 		} catch (IOException e) {
-			e.printStackTrace();
+			log.warn("index.{} of {} at revision {} cannot be read: {}", type, branch, revno, e.getMessage());
+			return "";
 		}
-		return content;
 	}
 
 	/**
-	 * Get the content of the UI file determined by the type
+	 * Get the content of the index.[type] file of the branch in the work folder.
+	 *
+	 * @param type "html", "js" or "css"
+	 * @param uiPath the URL path of the UI (see {@link #getUiPath(String, long)})
+	 * @return the content of the file
+	 * @throws SVNException
+	 */
+	public String getBranchUi(String type, String branch, long revno, boolean fromWC, String uiPath) throws SVNException {
+		try {
+			return decode(getBranchUiBuffer(type, branch, revno, fromWC, uiPath));
+		} catch (IOException e) {
+			log.warn("index.{} of {} at revision {} cannot be read: {}", type, branch, revno, e.getMessage());
+			return "";
+		}
+	}
+
+	/**
+	 * Get the content of the index.[type] file of the branch without decoding it (see {@link #getTrunkFlowBuffer(long)}).
+	 *
+	 * @param type "html", "js" or "css"
+	 * @param uiPath the URL path of the UI (see {@link #getUiPath(String, long)})
+	 * @return the content of the file (read-only), empty if the branch has no such file
+	 * @throws SVNException
+	 * @throws IOException
+	 */
+	public ByteBuffer getBranchUiBuffer(String type, String branch, long revno, boolean fromWC, String uiPath) throws SVNException, IOException {
+		if (fromWC) {
+			return mapWCFile("/uibuilder/" + uiPath + "/src/index." + type);
+		}
+		if (uiPath.isEmpty()) {
+			// No uibuilder node, so no UI files
+			return ByteBuffer.allocate(0).asReadOnlyBuffer();
+		}
+		return fetchUi(this.branchBaseUrl.appendPath(branch + "/uibuilder/" + uiPath + "/src/index." + type, false), revno);
+	}
+
+	/**
+	 * Get the content of the UI file determined by the type.
+	 * The UI path is taken from the flows.json of the same revision.
 	 *
 	 * @param revision Revision number of the index.[type] file
 	 * @param type 'html', 'js' or 'css'
@@ -719,34 +1082,43 @@ public class SvnActions {
 	 * @throws IOException
 	 */
 	public String getTrunkUi(String type, long revision) throws SVNException, IOException {
-		String content = "";
-		try {
-			if (revision == 0) {
-				// Get Workdir file
-				content = new String(Files.readAllBytes(Paths.get(this.workdir + "/uibuilder/" + this.trunkUiPath + "/src/index." + type)));
-			} else {
-				File tmpdir = Files.createTempDirectory("anydb-").toFile();
-				SvnExport export = this.svnOperationFactory.createExport();
-				export.setSingleTarget(SvnTarget.fromFile(tmpdir));
-				export.setForce(true);
-				if (revision == -1) {
-					export.setSource(SvnTarget.fromURL(this.trunkUrl.appendPath("uibuilder/" + this.trunkUiPath + "/src/index." + type, false), SVNRevision.HEAD));
-				} else {
-					export.setSource(SvnTarget.fromURL(this.trunkUrl.appendPath("uibuilder/" + this.trunkUiPath + "/src/index." + type, false), SVNRevision.create(revision)));
-				}
-				export.run();
-				content = new String(Files.readAllBytes(Paths.get(tmpdir.getAbsolutePath() + "/index." + type)));
-			}
-		} catch (SVNException e) {
-			if (!(e.getMessage().contains("uibuilder") &&
-					(e.getMessage().contains("non-existent") ||
-					 e.getMessage().contains("doesn't exist") ||
-					 e.getMessage().contains("was not found.") ||
-					 e.getMessage().contains("path not found:")))) {
-				throw e;
-			}
+		return getTrunkUi(type, revision, getUiPath("trunk", revision));
+	}
+
+	/**
+	 * Get the content of the UI file determined by the type
+	 *
+	 * @param revision Revision number of the index.[type] file
+	 * @param type 'html', 'js' or 'css'
+	 * @param uiPath the URL path of the UI (see {@link #getUiPath(String, long)})
+	 * @return the content of the index-file
+	 * @throws SVNException
+	 * @throws IOException
+	 */
+	public String getTrunkUi(String type, long revision, String uiPath) throws SVNException, IOException {
+		return decode(getTrunkUiBuffer(type, revision, uiPath));
+	}
+
+	/**
+	 * Get the content of the UI file determined by the type without decoding it (see {@link #getTrunkFlowBuffer(long)}).
+	 *
+	 * @param revision Revision number of the index.[type] file
+	 * @param type 'html', 'js' or 'css'
+	 * @param uiPath the URL path of the UI (see {@link #getUiPath(String, long)})
+	 * @return the content of the index-file (read-only), empty if the trunk has no such file
+	 * @throws SVNException
+	 * @throws IOException
+	 */
+	public ByteBuffer getTrunkUiBuffer(String type, long revision, String uiPath) throws SVNException, IOException {
+		if (revision == 0) {
+			// Get Workdir file
+			return mapWCFile("/uibuilder/" + uiPath + "/src/index." + type);
 		}
-		return content;
+		if (uiPath.isEmpty()) {
+			// No uibuilder node, so no UI files
+			return ByteBuffer.allocate(0).asReadOnlyBuffer();
+		}
+		return fetchUi(this.trunkUrl.appendPath("uibuilder/" + uiPath + "/src/index." + type, false), revision);
 	}
 
 	/**
@@ -756,9 +1128,16 @@ public class SvnActions {
 	 * @throws IOException
 	 */
 	public void updateFlow(String flow) throws IOException {
-        BufferedWriter writer = new BufferedWriter(new FileWriter(this.workdir + "/flows.json"));
-        writer.write(flow);
-        writer.close();
+		this.wcLock.writeLock().lock();
+		try {
+			writeWCFile("/flows.json", flow);
+			expandSparseUi();
+		} catch (SVNException e) {
+			throw new IOException(e);
+		} finally {
+			this.wcInfo = null;
+			this.wcLock.writeLock().unlock();
+		}
 	}
 
 	/**
@@ -769,9 +1148,12 @@ public class SvnActions {
 	 * @throws IOException
 	 */
 	public void updateUi(String type, String content) throws IOException {
-        BufferedWriter writer = new BufferedWriter(new FileWriter(this.workdir + "/uibuilder/" + this.branchUiPath + "/src/index." + type));
-        writer.write(content);
-        writer.close();
+		this.wcLock.writeLock().lock();
+		try {
+			writeWCFile("/uibuilder/" + getWCUiPath() + "/src/index." + type, content);
+		} finally {
+			this.wcLock.writeLock().unlock();
+		}
 	}
 
 	/**
@@ -780,19 +1162,31 @@ public class SvnActions {
 	 * @param commitMessage
 	 * @return the new revision number
 	 * @throws SVNException
+	 * @throws IOException
 	 */
-	public long commit(final String commitMessage) throws SVNException {
-		SvnCommit commit = this.svnOperationFactory.createCommit();
+	public long commit(final String commitMessage) throws SVNException, IOException {
+		this.wcLock.writeLock().lock();
+		try {
+			long rev = commit(commitMessage, getWCUiPath());
+			update();
+			return rev;
+		} finally {
+			this.wcInfo = null;
+			this.wcLock.writeLock().unlock();
+		}
+	}
+
+	private long commit(final String commitMessage, String uiPath) throws SVNException {
+		SvnCommit commit = this.session.factory().createCommit();
 		commit.setCommitMessage(commitMessage);
 		commit.addTarget(SvnTarget.fromFile(new File(this.workdir + "/flows.json")));
-		if (Files.exists(Paths.get(this.workdir + "/uibuilder/" + this.branchUiPath + "/src/index.html"))) {
-			commit.addTarget(SvnTarget.fromFile(new File(this.workdir + "/uibuilder/" + this.branchUiPath + "/src/index.html")));
-			commit.addTarget(SvnTarget.fromFile(new File(this.workdir + "/uibuilder/" + this.branchUiPath + "/src/index.js")));
-			commit.addTarget(SvnTarget.fromFile(new File(this.workdir + "/uibuilder/" + this.branchUiPath + "/src/index.css")));
+		if (Files.exists(Paths.get(this.workdir + "/uibuilder/" + uiPath + "/src/index.html"))) {
+			commit.addTarget(SvnTarget.fromFile(new File(this.workdir + "/uibuilder/" + uiPath + "/src/index.html")));
+			commit.addTarget(SvnTarget.fromFile(new File(this.workdir + "/uibuilder/" + uiPath + "/src/index.js")));
+			commit.addTarget(SvnTarget.fromFile(new File(this.workdir + "/uibuilder/" + uiPath + "/src/index.css")));
 		}
 		commit.addTarget(SvnTarget.fromFile(new File(this.workdir)));
 		SVNCommitInfo ci = commit.run();
-		update();
 		return ci.getNewRevision();
 	}
 
@@ -804,19 +1198,90 @@ public class SvnActions {
 	 * @throws SVNException
 	 */
 	public void update() throws SVNException {
-		SvnUpdate update = this.svnOperationFactory.createUpdate();
+		SvnUpdate update = this.session.factory().createUpdate();
 		update.setRevision(SVNRevision.HEAD);
 		update.setDepth(SVNDepth.INFINITY);
 		update.addTarget(SvnTarget.fromFile(new File(this.workdir)));
+		this.wcLock.writeLock().lock();
+		try {
+			update.run();
+			expandSparseUi();
+		} finally {
+			this.wcInfo = null;
+			this.wcLock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Bring a sparse working copy to full depth. SVN records a merge into a working copy with missing children
+	 * as non-inheritable merge info (e.g. /trunk:5-10*), after which later merges and reintegrates see the trunk
+	 * as partially merged. The working copy stays complete until the next checkout.
+	 */
+	private void completeSparseWC() throws SVNException {
+		if (!this.sparse) {
+			return;
+		}
+		SvnUpdate update = this.session.factory().createUpdate();
+		update.setSingleTarget(SvnTarget.fromFile(new File(this.workdir)));
+		update.setDepth(SVNDepth.INFINITY);
+		update.setDepthIsSticky(true);
 		update.run();
 	}
+
 	/**
-	 * Register the merge in the work folder
+	 * In a sparse working copy, bring in the uibuilder/[uiPath]/src folder of the UI that flows.json refers to,
+	 * if it is not there yet. So the working copy follows a change of the uibuilder URL.
 	 *
 	 * @throws SVNException
 	 */
-	public void merge(boolean trunkInBranch, String branch) throws SVNException {
-		SvnMerge merge = this.svnOperationFactory.createMerge();
+	private void expandSparseUi() throws SVNException {
+		if (!this.sparse) {
+			return;
+		}
+		String uiPath;
+		try {
+			uiPath = getWCUiPath();
+		} catch (IOException | JsonException e) {
+			log.warn("No uibuilder path in {}/flows.json: {}", this.workdir, e.getMessage());
+			return;
+		}
+		File src = new File(this.workdir + "/uibuilder/" + uiPath + "/src");
+		if (uiPath.isEmpty() || src.isDirectory()) {
+			return;
+		}
+		SvnUpdate update = this.session.factory().createUpdate();
+		update.setSingleTarget(SvnTarget.fromFile(src));
+		update.setDepth(SVNDepth.FILES);
+		update.setDepthIsSticky(true);
+		update.setMakeParents(true);
+		try {
+			update.run();
+		} catch (SVNException e) {
+			// The UI may only exist in the work folder yet
+			if (!SvnErrors.isNotFound(e)) {
+				throw e;
+			}
+		}
+	}
+	/**
+	 * Register the merge in the work folder. A sparse work folder is brought to full depth first.
+	 *
+	 * @throws SVNException
+	 * @throws IOException
+	 */
+	public void merge(boolean trunkInBranch, String branch) throws SVNException, IOException {
+		this.wcLock.writeLock().lock();
+		try {
+			completeSparseWC();
+			merge(trunkInBranch, branch, getWCUiPath());
+		} finally {
+			this.wcInfo = null;
+			this.wcLock.writeLock().unlock();
+		}
+	}
+
+	private void merge(boolean trunkInBranch, String branch, String uiPath) throws SVNException {
+		SvnMerge merge = this.session.factory().createMerge();
 		merge.setSingleTarget(SvnTarget.fromFile(new File(this.workdir)));
 		if (trunkInBranch) {
 			merge.setSource(SvnTarget.fromURL(this.trunkUrl), true);
@@ -829,61 +1294,270 @@ public class SvnActions {
 		merge.setAllowMixedRevisions(true);
 		merge.run();
 		System.out.println("merged");
-		SvnResolve resolve = this.svnOperationFactory.createResolve();
+		SvnResolve resolve = this.session.factory().createResolve();
 		resolve.setConflictChoice(SVNConflictChoice.MINE_FULL);
 		resolve.addTarget(SvnTarget.fromFile(new File(this.workdir + "/flows.json")));
 		resolve.run();
 		System.out.println("flows.json resolved");
-		if (Files.exists(Paths.get(this.workdir + "/uibuilder/" + this.branchUiPath + "/src/index.html"))) {
-			resolve = this.svnOperationFactory.createResolve();
-			resolve.addTarget(SvnTarget.fromFile(new File(this.workdir + "/uibuilder/" + this.branchUiPath + "/src/index.html")));
+		if (Files.exists(Paths.get(this.workdir + "/uibuilder/" + uiPath + "/src/index.html"))) {
+			resolve = this.session.factory().createResolve();
+			resolve.addTarget(SvnTarget.fromFile(new File(this.workdir + "/uibuilder/" + uiPath + "/src/index.html")));
 			resolve.run();
 			System.out.println("index.html resolved");
-			resolve = this.svnOperationFactory.createResolve();
-			resolve.addTarget(SvnTarget.fromFile(new File(this.workdir + "/uibuilder/" + this.branchUiPath + "/src/index.js")));
+			resolve = this.session.factory().createResolve();
+			resolve.addTarget(SvnTarget.fromFile(new File(this.workdir + "/uibuilder/" + uiPath + "/src/index.js")));
 			resolve.run();
 			System.out.println("index.js resolved");
-			resolve = this.svnOperationFactory.createResolve();
-			resolve.addTarget(SvnTarget.fromFile(new File(this.workdir + "/uibuilder/" + this.branchUiPath + "/src/index.css")));
+			resolve = this.session.factory().createResolve();
+			resolve.addTarget(SvnTarget.fromFile(new File(this.workdir + "/uibuilder/" + uiPath + "/src/index.css")));
 			resolve.run();
 			System.out.println("index.css resolved");
 		}
 	}
 
 	/**
-	 * Gobble the inputstream through the given consumer.
+	 * Get the URL path of the UI (the url of the uibuilder node) as it is in the flows.json of the given revision.
+	 * The path is kept per revision in which flows.json was last changed, so for HEAD or a revision that did not
+	 * change flows.json only that revision is asked (one info call) and the flow is not fetched again.
+	 * A flow that has to be read comes from the prefetched content or the content store when it is there,
+	 * and after a {@link #prefetchBranch(String)} the path of the prefetched revisions is known already.
+	 *
+	 * @param env "trunk" or branchName
+	 * @param revision 0 (work folder), -1 (HEAD) or the revision number
+	 * @return the URL path or "" if the flow has no uibuilder node
+	 * @throws SVNException
+	 * @throws IOException
+	 */
+	public String getUiPath(String env, long revision) throws SVNException, IOException {
+		if (revision == 0) {
+			return getWCUiPath();
+		}
+		String key = env.equalsIgnoreCase("trunk") ? "trunk" : env;
+		String uiPath = revision > 0 ? getCachedUiPath(key, revision) : null;
+		if (uiPath == null) {
+			long changed;
+			try {
+				changed = getLastChangedRevision(env, "flows.json", revision);
+			} catch (SVNException e) {
+				// As the flow getters: a revision without the flow falls back to HEAD
+				if ((revision == -1) || !SvnErrors.isNotFound(e)) {
+					throw e;
+				}
+				changed = getLastChangedRevision(env, "flows.json", -1);
+			}
+			uiPath = getCachedUiPath(key, changed);
+			if (uiPath == null) {
+				// The changed revision may be from before a branch was copied, so the flow is read at the
+				// requested revision, which has the same content
+				ByteBuffer flow = key.equals("trunk") ? getTrunkFlowBuffer(revision) : getBranchFlowBuffer(env, revision, false);
+				uiPath = getUiUrl(Utils.reader(flow));
+				this.uiPaths.put(key + "@" + changed, uiPath);
+			}
+			if (revision > 0) {
+				this.uiPaths.put(key + "@" + revision, uiPath);
+			}
+		}
+		return uiPath;
+	}
+
+	/**
+	 * @return the known UI path of a revision, from this work folder or from a prefetch of the branch
+	 */
+	private String getCachedUiPath(String key, long revision) {
+		String uiPath = this.uiPaths.get(key + "@" + revision);
+		if ((uiPath == null) && !key.equals("trunk")) {
+			uiPath = this.session.getPrefetcher().getUiPath(key, revision);
+			if (uiPath != null) {
+				this.uiPaths.put(key + "@" + revision, uiPath);
+			}
+		}
+		return uiPath;
+	}
+
+	/**
+	 * Remember the URL path of the UI of a revision of flows.json (see {@link #getUiPath(String, long)})
+	 *
+	 * @param env "trunk" or branchName
+	 * @param revision the revision number
+	 * @param uiPath the URL path of the UI
+	 */
+	void putUiPath(String env, long revision, String uiPath) {
+		if (revision > 0) {
+			this.uiPaths.put((env.equalsIgnoreCase("trunk") ? "trunk" : env) + "@" + revision, uiPath);
+		}
+	}
+
+	private String getWCUiPath() throws IOException {
+		WCInfo info = this.wcInfo;
+		if ((info != null) && Arrays.equals(info.getStamp(), getWCStamp())) {
+			return info.getUiPath();
+		}
+		return getUiUrl(Utils.reader(mapWCFile("/flows.json")));
+	}
+
+	/**
+	 * Get the content of a file revision. Numbered revisions are taken from the prefetched content or the
+	 * content store when they are in it, everything fetched from the repository is added to the store.
+	 * A numbered revision that does not exist is requested only once.
+	 *
+	 * @param url URL of the file
+	 * @param revision -1 (HEAD) or the revision number
+	 * @return the content of the file (read-only)
+	 * @throws SVNException
+	 * @throws IOException
+	 */
+	private ByteBuffer fetch(SVNURL url, long revision) throws SVNException, IOException {
+		if (this.session.isMissing(url, revision)) {
+			throw SvnErrors.notFound(url, revision);
+		}
+		if (revision > 0) {
+			ByteBuffer prefetched = this.session.getPrefetcher().get(url, revision);
+			if (prefetched != null) {
+				return prefetched;
+			}
+		}
+		ContentStore store = this.session.getContentStore();
+		if ((store != null) && (revision > 0)) {
+			byte[] content = store.get(url.toString(), revision);
+			if (content != null) {
+				return ByteBuffer.wrap(content).asReadOnlyBuffer();
+			}
+		}
+		SVNRepository repository = this.session.repository(url.removePathTail());
+		SVNProperties props = new SVNProperties();
+		ContentBuffer out = new ContentBuffer();
+		try {
+			repository.getFile(SVNPathUtil.tail(url.getPath()), revision, props, out);
+		} catch (SVNException e) {
+			if (SvnErrors.isNotFound(e)) {
+				this.session.setMissing(url, revision);
+			}
+			throw e;
+		}
+		ByteBuffer content = out.toByteBuffer();
+		if (store != null) {
+			long rev = revision > 0 ? revision : Long.parseLong(props.getStringValue(SVNProperty.COMMITTED_REVISION));
+			store.put(url.toString(), rev, props.getStringValue(SVNProperty.CHECKSUM), content);
+		}
+		return content;
+	}
+
+	/**
+	 * Fetch a uibuilder index file; a flow without (that revision of) the file has an empty UI
+	 */
+	private ByteBuffer fetchUi(SVNURL url, long revision) throws SVNException, IOException {
+		if (this.session.isMissing(url, revision)) {
+			return ByteBuffer.allocate(0).asReadOnlyBuffer();
+		}
+		try {
+			return fetch(url, revision);
+		} catch (SVNException e) {
+			if (!SvnErrors.isNotFound(e)) {
+				throw e;
+			}
+			return ByteBuffer.allocate(0).asReadOnlyBuffer();
+		}
+	}
+
+	/**
+	 * A ByteArrayOutputStream that hands out its buffer instead of a copy
+	 */
+	static class ContentBuffer extends ByteArrayOutputStream {
+		ContentBuffer() {
+			super(8192);
+		}
+
+		ByteBuffer toByteBuffer() {
+			return ByteBuffer.wrap(this.buf, 0, this.count).asReadOnlyBuffer();
+		}
+	}
+
+	/**
+	 * Map a file of the work folder into memory. Files of the work folder are only replaced, never
+	 * rewritten in place (see {@link #writeWCFile(String, String)}), so the mapping stays valid.
+	 * Windows does not allow to replace a file while a mapping of it exists (and a mapping lives until it is
+	 * garbage collected), so there the file is read into memory instead.
+	 *
+	 * @param path path relative to the work folder, starting with a '/'
+	 * @return the content of the file (read-only)
+	 * @throws IOException
 	 */
-	private static class StreamGobbler implements Runnable {
-	    private InputStream inputStream;
-	    private Consumer<String> consumer;
+	private ByteBuffer mapWCFile(String path) throws IOException {
+		this.wcLock.readLock().lock();
+		try {
+			Path file = Paths.get(this.workdir + path);
+			if (!MAP_WC_FILES) {
+				return ByteBuffer.wrap(Files.readAllBytes(file)).asReadOnlyBuffer();
+			}
+			try (FileChannel fc = FileChannel.open(file, StandardOpenOption.READ)) {
+				return fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
+			}
+		} finally {
+			this.wcLock.readLock().unlock();
+		}
+	}
 
-	    public StreamGobbler(InputStream inputStream, Consumer<String> consumer) {
-	        this.inputStream = inputStream;
-	        this.consumer = consumer;
-	    }
+	/**
+	 * Replace a file of the work folder. The content is written to a temporary file that is then moved
+	 * over the old file, so buffers mapped from the old file keep their content. The temporary file gets
+	 * the permissions (and if allowed the group) of the old file, so NodeRED and uibuilder, which may run as
+	 * another user, can still read it. A new file gets the default permissions.
+	 * The caller must hold the write lock.
+	 *
+	 * @param path path relative to the work folder, starting with a '/'
+	 * @param content the new content
+	 * @throws IOException
+	 */
+	private void writeWCFile(String path, String content) throws IOException {
+		Path target = Paths.get(this.workdir + path);
+		Path tmp = target.resolveSibling(".svnactions-" + Long.toHexString(System.nanoTime()) + "-" + target.getFileName() + ".tmp");
+		try {
+			// Not Files.createTempFile: that makes the file readable for the owner only
+			Files.write(tmp, content.getBytes(), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+			if (Files.exists(target)) {
+				copyAttributes(target, tmp);
+			}
+			Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(tmp);
+		}
+	}
+
+	private static void copyAttributes(Path from, Path to) throws IOException {
+		PosixFileAttributeView view = Files.getFileAttributeView(from, PosixFileAttributeView.class);
+		if (view != null) {
+			PosixFileAttributes attrs = view.readAttributes();
+			Files.setPosixFilePermissions(to, attrs.permissions());
+			try {
+				Files.getFileAttributeView(to, PosixFileAttributeView.class).setGroup(attrs.group());
+			} catch (IOException e) {
+				// Only allowed for a group the user is member of
+				log.debug("Group {} of {} not copied: {}", attrs.group(), from, e.getMessage());
+			}
+		} else if (Files.getFileAttributeView(from, DosFileAttributeView.class) != null) {
+			Files.setAttribute(to, "dos:readonly", Files.getAttribute(from, "dos:readonly"));
+		}
+	}
 
-	    @Override
-	    public void run() {
-	        new BufferedReader(new InputStreamReader(this.inputStream)).lines()
-	          .forEach(this.consumer);
-	    }
+	private static String decode(ByteBuffer content) {
+		return Charset.defaultCharset().decode(content.duplicate()).toString();
 	}
 
 	/**
-	 * Determine the URL path of the UI
+	 * Determine the URL path of the UI: the url of the last uibuilder node (the {@link Prefetcher} uses the same rule)
 	 *
 	 * @param flow
 	 * @return
 	 */
-	private String getUiUrl(String flow) {
+	static String getUiUrl(Reader flow) {
 		String url = "";
-		JsonArray jsonArray = Json.createReader(new StringReader(flow)).readArray();
+		JsonArray jsonArray = Json.createReader(flow).readArray();
 		for (JsonValue jo : jsonArray) {
-			if (jo.getClass() == JsonObject.class) {
+			if (jo.getValueType() == JsonValue.ValueType.OBJECT) {
 				JsonObject obj = (JsonObject) jo;
-				String type = obj.getString("type");
+				String type = obj.getString("type", "");
 				if (type.equalsIgnoreCase("uibuilder")) {
-					url = obj.getString("url");
+					url = obj.getString("url", "");
 				}
 			}
 		}
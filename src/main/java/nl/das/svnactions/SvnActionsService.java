@@ -0,0 +1,91 @@
+/*
+ * Copyright © 2022 Dutch Arrow Software - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the Apache Software License 2.0.
+ *
+ * Created 14 Oct 2022.
+ */
+
+
+package nl.das.svnactions;
+
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Manages the SvnActions of many NodeRED work directories (one per operator) on top of one shared
+ * {@link SvnSession}.<br><br>
+ * Every work directory has exactly one SvnActions instance, which guards its working copy with its
+ * own read/write lock. Reads of the same work directory run in parallel, a write (update, commit, merge,
+ * checkout) is exclusive, and work directories never block each other.
+ * Calls that only talk to the repository take no lock at all.
+ */
+public class SvnActionsService implements AutoCloseable {
+	private SvnSession session;
+	private final Map<String, SvnActions> workdirs = new ConcurrentHashMap<>();
+	private RevisionWatcher watcher;
+
+	/**
+	 * Constructor
+	 *
+	 * @param properties the repository properties (see {@link SvnSession#SvnSession(Properties)})
+	 */
+	public SvnActionsService(Properties properties) {
+		this(new SvnSession(properties));
+	}
+
+	public SvnActionsService(SvnSession session) {
+		this.session = session;
+	}
+
+	public SvnSession getSession() {
+		return this.session;
+	}
+
+	/**
+	 * Get the SvnActions of a work directory. The same instance is returned for every call with the same directory.
+	 *
+	 * @param workdir Absolute path of the NodeRED work directory
+	 * @return the SvnActions of the work directory
+	 */
+	public SvnActions forWorkdir(String workdir) {
+		String key = Paths.get(workdir).toAbsolutePath().normalize().toString();
+		return this.workdirs.computeIfAbsent(key, wd -> new SvnActions(this.session, wd));
+	}
+
+	/**
+	 * Forget a work directory. The working copy itself is left untouched.
+	 *
+	 * @param workdir Absolute path of the NodeRED work directory
+	 */
+	public void release(String workdir) {
+		this.workdirs.remove(Paths.get(workdir).toAbsolutePath().normalize().toString());
+	}
+
+	/**
+	 * Get the revision watcher of the session. It is started on the first call.
+	 *
+	 * @return the watcher, shared by all callers
+	 */
+	public synchronized RevisionWatcher getWatcher() {
+		if (this.watcher == null) {
+			this.watcher = new RevisionWatcher(this.session);
+			this.watcher.start();
+		}
+		return this.watcher;
+	}
+
+	@Override
+	public void close() {
+		synchronized (this) {
+			if (this.watcher != null) {
+				this.watcher.close();
+				this.watcher = null;
+			}
+		}
+		this.workdirs.clear();
+		this.session.close();
+	}
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright © 2022 Dutch Arrow Software - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the Apache Software License 2.0.
+ *
+ * Created 14 Oct 2022.
+ */
+
+
+package nl.das.svnactions;
+
+import java.util.Set;
+
+import org.tmatesoft.svn.core.SVNErrorCode;
+import org.tmatesoft.svn.core.SVNErrorMessage;
+import org.tmatesoft.svn.core.SVNException;
+
+/**
+ * Classification of SVN errors by their error code, independent of the (localized) message text
+ * and of the protocol that is used (file://, svn:// or http(s)://).
+ */
+public final class SvnErrors {
+
+	/** The codes with which the protocols report a path that does not exist (in the requested revision) */
+	private static final Set<Integer> NOT_FOUND = Set.of(
+			SVNErrorCode.FS_NOT_FOUND.getCode(),
+			SVNErrorCode.RA_ILLEGAL_URL.getCode(),
+			SVNErrorCode.RA_DAV_PATH_NOT_FOUND.getCode(),
+			SVNErrorCode.ENTRY_NOT_FOUND.getCode());
+
+	private SvnErrors() {
+	}
+
+	/**
+	 * Does the exception tell that the path does not exist (in the requested revision)?
+	 * The whole chain of error messages is checked, since some operations wrap the cause.
+	 *
+	 * @param e
+	 * @return true if the path does not exist
+	 */
+	public static boolean isNotFound(SVNException e) {
+		for (SVNErrorMessage m = e.getErrorMessage(); m != null; m = m.getChildErrorMessage()) {
+			if (NOT_FOUND.contains(m.getErrorCode().getCode())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Create the exception for a path that is known not to exist
+	 *
+	 * @param path URL of the path
+	 * @param revision revision number
+	 * @return the exception, recognized by {@link #isNotFound(SVNException)}
+	 */
+	public static SVNException notFound(Object path, long revision) {
+		return new SVNException(SVNErrorMessage.create(SVNErrorCode.FS_NOT_FOUND, "File not found: revision {0}, path ''{1}''", revision, path));
+	}
+}
@@ -0,0 +1,310 @@
+/*
+ * Copyright © 2022 Dutch Arrow Software - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the Apache Software License 2.0.
+ *
+ * Created 14 Oct 2022.
+ */
+
+
+package nl.das.svnactions;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.tmatesoft.svn.core.SVNException;
+import org.tmatesoft.svn.core.SVNURL;
+import org.tmatesoft.svn.core.auth.BasicAuthenticationManager;
+import org.tmatesoft.svn.core.auth.ISVNAuthenticationManager;
+import org.tmatesoft.svn.core.io.SVNRepository;
+import org.tmatesoft.svn.core.wc2.SvnOperationFactory;
+
+/**
+ * The repository side of the SvnActions: the repository URL's, the credentials and the
+ * connections to the SVN server. One session can be shared by any number of working copies
+ * and threads.<br><br>
+ * An SvnOperationFactory (and the connections it keeps open) may only be used by one thread
+ * at a time, so every thread gets its own factory. A factory is kept as long as its thread lives,
+ * so a thread that comes back (e.g. from a request pool) reuses its connections. The threads are
+ * held weakly; the factory of a thread that is gone is disposed when the next thread asks for a
+ * factory, so short-lived pool threads do not pin their connections.
+ */
+public class SvnSession implements AutoCloseable {
+	private static final Logger log = LoggerFactory.getLogger(SvnSession.class);
+	private static final int MAX_MISSING = 100000;
+
+	private Properties props;
+	private SVNURL trunkUrl;
+	private SVNURL trunkSqlUrl;
+	private SVNURL branchBaseUrl;
+	private ISVNAuthenticationManager authManager;
+	private volatile SVNURL rootUrl;
+	private ContentStore store;
+	private boolean storeOpened;
+	private Prefetcher prefetcher;
+	private ProcessRunner processRunner;
+	private TrashReaper trashReaper;
+	private NodeIndex nodeIndex;
+	private final Map<SvnOperationFactory, WeakReference<Thread>> factories = new ConcurrentHashMap<>();
+	private final Set<String> missing = ConcurrentHashMap.newKeySet();
+	private final ThreadLocal<SvnOperationFactory> threadFactory = ThreadLocal.withInitial(this::newFactory);
+
+	/**
+	 * Constructor<br><br>
+	 * Properties:<br>
+	 * <table>
+	 * <tr><td>repohost</td><td>SVN host URL (e.g. http://localhost)</td></tr>
+	 * <tr><td>path.trunk</td><td>Path of the SVN trunk (e.g. /svn/test/trunk/nodered-live)</td></tr>
+	 * <tr><td>path.branches</td><td>Path of the SVN branches (e.g. /svn/test/branches)</td></tr>
+	 * <tr><td>path.sql</td><td>Path to the SVN trunk of the SQL Scripts (e.g. /svn/test/trunk/sql)</td></tr>
+	 * <tr><td>username</td><td>SVN user</td></tr>
+	 * <tr><td>password</td><td>Password of the SVN user</td></tr>
+	 * <tr><td>store.dir</td><td>Directory of the {@link ContentStore} (default ~/.svnactions/store, empty to disable)</td></tr>
+	 * </table>
+	 *
+	 * @param properties (see above)
+	 */
+	public SvnSession(Properties properties) {
+		this.props = properties;
+		try {
+			this.trunkUrl = SVNURL.parseURIEncoded(this.props.getProperty("repohost") + this.props.getProperty("path.trunk"));
+			this.branchBaseUrl = SVNURL.parseURIEncoded(this.props.getProperty("repohost") + this.props.getProperty("path.branches"));
+			this.trunkSqlUrl = SVNURL.parseURIEncoded(this.props.getProperty("repohost") + this.props.getProperty("path.sql"));
+		} catch (SVNException e) {
+		}
+		this.authManager = BasicAuthenticationManager.newInstance(this.props.getProperty("username"), this.props.getProperty("password").toCharArray());
+	}
+
+	public Properties getProperties() {
+		return this.props;
+	}
+
+	public SVNURL getTrunkUrl() {
+		return this.trunkUrl;
+	}
+
+	public SVNURL getTrunkSqlUrl() {
+		return this.trunkSqlUrl;
+	}
+
+	public SVNURL getBranchBaseUrl() {
+		return this.branchBaseUrl;
+	}
+
+	/**
+	 * Get the operation factory of the calling thread.
+	 *
+	 * @return the factory, never shared with another thread
+	 */
+	public SvnOperationFactory factory() {
+		return this.threadFactory.get();
+	}
+
+	/**
+	 * Get a repository connection of the calling thread, pointing to the given URL.
+	 * The connection comes from the pool of the thread's factory, so it is reused by later calls.
+	 *
+	 * @param url location of the repository connection
+	 * @return the repository connection
+	 * @throws SVNException
+	 */
+	public SVNRepository repository(SVNURL url) throws SVNException {
+		SVNRepository repository = factory().getRepositoryPool().createRepository(url, true);
+		repository.setLocation(url, false);
+		return repository;
+	}
+
+	/**
+	 * Get the root URL of the repository
+	 *
+	 * @return the root URL
+	 * @throws SVNException
+	 */
+	public SVNURL getRepositoryRoot() throws SVNException {
+		if (this.rootUrl == null) {
+			this.rootUrl = repository(this.trunkUrl).getRepositoryRoot(true);
+		}
+		return this.rootUrl;
+	}
+
+	/**
+	 * Get the path of an URL relative to the repository root, as used in log entries (e.g. /trunk/nodered-live)
+	 *
+	 * @param url URL inside the repository
+	 * @return the path, starting with a '/'
+	 * @throws SVNException
+	 */
+	public String getRepositoryPath(SVNURL url) throws SVNException {
+		String path = url.getPath().substring(getRepositoryRoot().getPath().length());
+		return path.startsWith("/") ? path : "/" + path;
+	}
+
+	/**
+	 * Is the path known not to exist in the revision?
+	 *
+	 * @param url URL of the path
+	 * @param revision revision number
+	 * @return true if an earlier request found that the path does not exist
+	 */
+	public boolean isMissing(SVNURL url, long revision) {
+		return (revision > 0) && this.missing.contains(url.toString() + "@" + revision);
+	}
+
+	/**
+	 * Remember that a path does not exist in a revision. A revision never changes, so neither does the absence
+	 * of a path in it; the absence in HEAD (-1) can change with every commit and is not remembered.
+	 *
+	 * @param url URL of the path
+	 * @param revision revision number
+	 */
+	public void setMissing(SVNURL url, long revision) {
+		if (revision > 0) {
+			if (this.missing.size() >= MAX_MISSING) {
+				this.missing.clear();
+			}
+			this.missing.add(url.toString() + "@" + revision);
+		}
+	}
+
+	/**
+	 * Get the content store of the session. It is opened on the first call.
+	 *
+	 * @return the store, or null if it is disabled or cannot be opened
+	 */
+	public synchronized ContentStore getContentStore() {
+		if (!this.storeOpened) {
+			this.storeOpened = true;
+			String dir = this.props.getProperty("store.dir", System.getProperty("user.home") + "/.svnactions/store");
+			if (!dir.isEmpty()) {
+				try {
+					this.store = new ContentStore(Paths.get(dir));
+				} catch (IOException | RuntimeException e) {
+					log.warn("Content store {} cannot be opened, continuing without it: {}", dir, e.getMessage());
+				}
+			}
+		}
+		return this.store;
+	}
+
+	/**
+	 * Get the prefetcher of the session. It is created on the first call.
+	 *
+	 * @return the prefetcher, shared by all working copies
+	 */
+	public synchronized Prefetcher getPrefetcher() {
+		if (this.prefetcher == null) {
+			this.prefetcher = new Prefetcher(this);
+		}
+		return this.prefetcher;
+	}
+
+	/**
+	 * Get the runner for external processes. It is created on the first call.
+	 *
+	 * @return the runner, shared by all working copies
+	 */
+	public synchronized ProcessRunner getProcessRunner() {
+		if (this.processRunner == null) {
+			this.processRunner = new ProcessRunner(this.props);
+		}
+		return this.processRunner;
+	}
+
+	/**
+	 * Get the reaper that deletes discarded work folders. It is created on the first call.
+	 *
+	 * @return the reaper, shared by all working copies
+	 */
+	public synchronized TrashReaper getTrashReaper() {
+		if (this.trashReaper == null) {
+			this.trashReaper = new TrashReaper(this.props);
+		}
+		return this.trashReaper;
+	}
+
+	/**
+	 * Get the index of the nodes in the flows. It is created on the first call.
+	 *
+	 * @return the index, shared by all working copies
+	 */
+	public synchronized NodeIndex getNodeIndex() {
+		if (this.nodeIndex == null) {
+			this.nodeIndex = new NodeIndex(this);
+		}
+		return this.nodeIndex;
+	}
+
+	/**
+	 * Close all connections of all threads.
+	 */
+	@Override
+	public void close() {
+		synchronized (this) {
+			if (this.prefetcher != null) {
+				this.prefetcher.close();
+				this.prefetcher = null;
+			}
+			if (this.processRunner != null) {
+				this.processRunner.close();
+				this.processRunner = null;
+			}
+			if (this.trashReaper != null) {
+				this.trashReaper.close();
+				this.trashReaper = null;
+			}
+			if (this.nodeIndex != null) {
+				this.nodeIndex.close();
+				this.nodeIndex = null;
+			}
+		}
+		for (SvnOperationFactory f : this.factories.keySet()) {
+			if (this.factories.remove(f) != null) {
+				f.dispose();
+			}
+		}
+		synchronized (this) {
+			if (this.store != null) {
+				try {
+					this.store.close();
+				} catch (IOException e) {
+					log.warn("Closing the content store failed: {}", e.getMessage());
+				}
+				this.store = null;
+			}
+		}
+	}
+
+	/**
+	 * @return the number of factories that are not disposed yet
+	 */
+	int getFactoryCount() {
+		return this.factories.size();
+	}
+
+	private SvnOperationFactory newFactory() {
+		reapFactories();
+		SvnOperationFactory f = new SvnOperationFactory();
+		f.setAuthenticationManager(this.authManager);
+		this.factories.put(f, new WeakReference<>(Thread.currentThread()));
+		return f;
+	}
+
+	/**
+	 * Dispose the factories of the threads that have ended
+	 */
+	private void reapFactories() {
+		for (Map.Entry<SvnOperationFactory, WeakReference<Thread>> e : this.factories.entrySet()) {
+			Thread t = e.getValue().get();
+			if (((t == null) || !t.isAlive()) && (this.factories.remove(e.getKey()) != null)) {
+				e.getKey().dispose();
+			}
+		}
+	}
+}
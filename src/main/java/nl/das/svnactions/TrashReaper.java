@@ -0,0 +1,187 @@
+/*
+ * Copyright © 2022 Dutch Arrow Software - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the Apache Software License 2.0.
+ *
+ * Created 14 Oct 2022.
+ */
+
+
+package nl.das.svnactions;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Removes directories in the background.<br><br>
+ * A work folder (with its node_modules) easily holds hundreds of thousands of files. Instead of deleting them
+ * before a checkout can start, the folder is renamed into the trash directory next to it, which takes no time,
+ * and a low priority background thread deletes the trash, the subdirectories in parallel.
+ * Trash that is left behind by a stop is deleted as soon as a work folder next to it is used again.<br><br>
+ * Properties:<br>
+ * <table>
+ * <tr><td>trash.threads</td><td>Number of threads that delete in parallel (default 4)</td></tr>
+ * </table>
+ */
+public class TrashReaper implements AutoCloseable {
+	private static final Logger log = LoggerFactory.getLogger(TrashReaper.class);
+	private static final String TRASH = ".svnactions-trash";
+
+	private ExecutorService reaper;
+	private ForkJoinPool deleters;
+	private final Set<Path> trashDirs = ConcurrentHashMap.newKeySet();
+	private final AtomicLong sequence = new AtomicLong();
+
+	public TrashReaper(Properties props) {
+		this.reaper = Executors.newSingleThreadExecutor(r -> {
+			Thread t = new Thread(r, "svn-trash-reaper");
+			t.setDaemon(true);
+			t.setPriority(Thread.MIN_PRIORITY);
+			return t;
+		});
+		this.deleters = new ForkJoinPool(Integer.parseInt(props.getProperty("trash.threads", "4")), pool -> {
+			ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+			t.setName("svn-trash-" + t.getPoolIndex());
+			t.setPriority(Thread.MIN_PRIORITY);
+			return t;
+		}, null, false);
+	}
+
+	/**
+	 * Get the trash directory of a directory
+	 *
+	 * @param dir
+	 * @return the trash directory (a sibling of dir)
+	 */
+	public static Path getTrash(Path dir) {
+		return dir.toAbsolutePath().normalize().resolveSibling(TRASH);
+	}
+
+	/**
+	 * Move a directory into the trash. When this method returns, the directory no longer exists.
+	 * If the directory cannot be moved as a whole (e.g. it is a mount point), its content is moved,
+	 * and what cannot be moved is deleted in place.
+	 *
+	 * @param dir the directory to remove
+	 * @throws IOException
+	 */
+	public void discard(Path dir) throws IOException {
+		if (!Files.exists(dir, LinkOption.NOFOLLOW_LINKS)) {
+			return;
+		}
+		Path trash = getTrash(dir);
+		Files.createDirectories(trash);
+		resume(trash);
+		Path target = trash.resolve(dir.getFileName() + "-" + System.currentTimeMillis() + "-" + this.sequence.incrementAndGet());
+		try {
+			Files.move(dir, target, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			log.debug("{} cannot be moved to the trash ({}), moving its content", dir, e.getMessage());
+			Files.createDirectory(target);
+			try (DirectoryStream<Path> children = Files.newDirectoryStream(dir)) {
+				for (Path child : children) {
+					try {
+						Files.move(child, target.resolve(child.getFileName()), StandardCopyOption.ATOMIC_MOVE);
+					} catch (IOException ex) {
+						this.deleters.invoke(new Delete(child));
+					}
+				}
+			}
+		}
+		this.reaper.execute(() -> reap(target));
+	}
+
+	/**
+	 * Delete everything in a trash directory, the first time it is seen
+	 *
+	 * @param trash the trash directory
+	 */
+	public void resume(Path trash) {
+		if (this.trashDirs.add(trash)) {
+			this.reaper.execute(() -> {
+				try (DirectoryStream<Path> entries = Files.newDirectoryStream(trash)) {
+					for (Path entry : entries) {
+						reap(entry);
+					}
+				} catch (IOException e) {
+					log.warn("Trash {} cannot be read: {}", trash, e.getMessage());
+				}
+			});
+		}
+	}
+
+	@Override
+	public void close() {
+		this.reaper.shutdownNow();
+		this.deleters.shutdownNow();
+	}
+
+	private void reap(Path entry) {
+		long start = System.currentTimeMillis();
+		this.deleters.invoke(new Delete(entry));
+		if (Files.exists(entry, LinkOption.NOFOLLOW_LINKS)) {
+			log.warn("{} could not be deleted completely", entry);
+		} else {
+			log.debug("{} deleted in {} ms", entry, System.currentTimeMillis() - start);
+		}
+	}
+
+	/**
+	 * Delete a file or a directory tree, the subdirectories in parallel. Failures are skipped,
+	 * the next run deletes what is left.
+	 */
+	private static class Delete extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final transient Path path;
+
+		Delete(Path path) {
+			this.path = path;
+		}
+
+		@Override
+		protected void compute() {
+			if (Files.isDirectory(this.path, LinkOption.NOFOLLOW_LINKS)) {
+				List<Delete> subdirs = new ArrayList<>();
+				try (DirectoryStream<Path> children = Files.newDirectoryStream(this.path)) {
+					for (Path child : children) {
+						if (Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+							subdirs.add(new Delete(child));
+						} else {
+							delete(child);
+						}
+					}
+				} catch (IOException e) {
+					log.debug("{} cannot be read: {}", this.path, e.getMessage());
+				}
+				invokeAll(subdirs);
+			}
+			delete(this.path);
+		}
+
+		private static void delete(Path p) {
+			try {
+				Files.deleteIfExists(p);
+			} catch (IOException e) {
+				log.debug("{} cannot be deleted: {}", p, e.getMessage());
+			}
+		}
+	}
+}
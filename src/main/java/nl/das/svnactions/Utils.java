@@ -20,8 +20,26 @@
 
 package nl.das.svnactions;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
 import java.nio.ByteBuffer;
-import java.util.UUID;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.SplittableRandom;
+
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonObject;
+import javax.json.JsonValue;
 
 /**
  *
@@ -29,30 +47,181 @@ import java.util.UUID;
 public class Utils {
 
 	private static final char[] HEX_ARRAY = "0123456789ABCDEF".toCharArray();
+	private static final char[] ID_DIGITS = "0123456789abcdef".toCharArray();
+	/** Two hex characters per byte value, so a byte is converted with one lookup */
+	private static final char[] HEX_TABLE = new char[512];
+	static {
+		for (int i = 0; i < 256; i++) {
+			HEX_TABLE[i * 2] = HEX_ARRAY[i >>> 4];
+			HEX_TABLE[(i * 2) + 1] = HEX_ARRAY[i & 0x0F];
+		}
+	}
+
+	private static final SecureRandom SEEDER = new SecureRandom();
+	private static final ThreadLocal<SplittableRandom> RANDOM = ThreadLocal.withInitial(() -> new SplittableRandom(SEEDER.nextLong()));
+	private static final ThreadLocal<char[]> ID_BUFFER = ThreadLocal.withInitial(() -> new char[16]);
+
+	/**
+	 * Generate a NodeRED node id: 16 hex characters holding 64 random bits.
+	 * Every thread has its own generator (seeded from a SecureRandom) and character buffer,
+	 * so the only allocation is the returned string.
+	 *
+	 * @return the id
+	 */
+	public static String generateGUID() {
+		return toId(RANDOM.get().nextLong(), ID_BUFFER.get());
+	}
+
+	/**
+	 * Generate a number of distinct NodeRED node ids
+	 *
+	 * @param n number of ids
+	 * @return the ids
+	 */
+	public static List<String> generate(int n) {
+		return generate(n, new HashSet<>());
+	}
+
+	/**
+	 * Generate a number of NodeRED node ids that do not occur in the given flow
+	 *
+	 * @param n number of ids
+	 * @param flow content of a flows.json file
+	 * @return the ids
+	 */
+	public static List<String> generate(int n, String flow) {
+		return generate(n, getNodeIds(flow));
+	}
+
+	/**
+	 * Generate a number of distinct NodeRED node ids that do not occur in the given collection
+	 *
+	 * @param n number of ids
+	 * @param taken ids that are already in use
+	 * @return the ids
+	 */
+	public static List<String> generate(int n, Collection<String> taken) {
+		Set<String> used = new HashSet<>(taken);
+		List<String> ids = new ArrayList<>(n);
+		SplittableRandom rnd = RANDOM.get();
+		char[] buf = ID_BUFFER.get();
+		while (ids.size() < n) {
+			String id = toId(rnd.nextLong(), buf);
+			if (used.add(id)) {
+				ids.add(id);
+			}
+		}
+		return ids;
+	}
+
+	/**
+	 * Get the ids of all nodes in a flow
+	 *
+	 * @param flow content of a flows.json file
+	 * @return the node ids
+	 */
+	public static Set<String> getNodeIds(String flow) {
+		Set<String> ids = new HashSet<>();
+		JsonArray jsonArray = Json.createReader(new StringReader(flow)).readArray();
+		for (JsonValue jo : jsonArray) {
+			if (jo.getValueType() == JsonValue.ValueType.OBJECT) {
+				String id = ((JsonObject) jo).getString("id", null);
+				if (id != null) {
+					ids.add(id);
+				}
+			}
+		}
+		return ids;
+	}
+
+	public static String bytesToHex(byte[] bytes) {
+		return bytesToHex(ByteBuffer.wrap(bytes));
+	}
+
+	/**
+	 * Convert the remaining bytes of a buffer to upper case hex. The position of the buffer is not changed.
+	 *
+	 * @param bytes
+	 * @return the hex string
+	 */
+	public static String bytesToHex(ByteBuffer bytes) {
+		char[] hexChars = new char[bytes.remaining() * 2];
+		for (int i = bytes.position(), j = 0; i < bytes.limit(); i++, j += 2) {
+			int v = (bytes.get(i) & 0xFF) << 1;
+			hexChars[j] = HEX_TABLE[v];
+			hexChars[j + 1] = HEX_TABLE[v + 1];
+		}
+		return new String(hexChars);
+	}
+
+	/**
+	 * Get a Reader that decodes the remaining bytes of a buffer as UTF-8 while it is read,
+	 * so the content is never held as a String. The position of the buffer is not changed.
+	 *
+	 * @param content
+	 * @return the reader
+	 */
+	public static Reader reader(ByteBuffer content) {
+		return Channels.newReader(new BufferChannel(content.duplicate()), StandardCharsets.UTF_8.newDecoder(), -1);
+	}
+
+	/**
+	 * Write the remaining bytes of a buffer to a channel. The position of the buffer is not changed.
+	 *
+	 * @param content
+	 * @param channel
+	 * @return the number of bytes written
+	 * @throws IOException
+	 */
+	public static long transfer(ByteBuffer content, WritableByteChannel channel) throws IOException {
+		ByteBuffer src = content.duplicate();
+		long n = 0;
+		while (src.hasRemaining()) {
+			n += channel.write(src);
+		}
+		return n;
+	}
+
+	private static String toId(long bits, char[] buf) {
+		for (int i = buf.length - 1; i >= 0; i--) {
+			buf[i] = ID_DIGITS[(int) (bits & 0xF)];
+			bits >>>= 4;
+		}
+		return new String(buf);
+	}
+
+	/**
+	 * Read side of a ByteBuffer, for {@link Channels#newReader(ReadableByteChannel, java.nio.charset.CharsetDecoder, int)}
+	 */
+	private static class BufferChannel implements ReadableByteChannel {
+		private ByteBuffer src;
+		private boolean open = true;
+
+		BufferChannel(ByteBuffer src) {
+			this.src = src;
+		}
+
+		@Override
+		public int read(ByteBuffer dst) {
+			if (!this.src.hasRemaining()) {
+				return -1;
+			}
+			int n = Math.min(dst.remaining(), this.src.remaining());
+			ByteBuffer slice = this.src.slice();
+			slice.limit(n);
+			dst.put(slice);
+			this.src.position(this.src.position() + n);
+			return n;
+		}
+
+		@Override
+		public boolean isOpen() {
+			return this.open;
+		}
 
-    public static String generateGUID() {
-    	UUID uuid = UUID.randomUUID();
-        ByteBuffer bb = ByteBuffer.wrap(new byte[16]);
-        bb.putLong(uuid.getMostSignificantBits());
-        bb.putLong(uuid.getLeastSignificantBits());
-        byte[] bar = bb.array();
-    	StringBuilder hex = new StringBuilder();
-    	for (int i = 0; i < bar.length; i += 2) {
-	        char[] hexDigits = new char[2];
-	        hexDigits[0] = Character.forDigit((bar[i] >> 4) & 0xF, 16);
-	        hexDigits[1] = Character.forDigit((bar[i + 1] & 0xF), 16);
-	        hex.append(hexDigits);
-    	}
-        return hex.toString();
-    }
-
-    public static String bytesToHex(byte[] bytes) {
-        char[] hexChars = new char[bytes.length * 2];
-        for (int j = 0; j < bytes.length; j++) {
-            int v = bytes[j] & 0xFF;
-            hexChars[j * 2] = HEX_ARRAY[v >>> 4];
-            hexChars[(j * 2) + 1] = HEX_ARRAY[v & 0x0F];
-        }
-        return new String(hexChars);
-    }
+		@Override
+		public void close() {
+			this.open = false;
+		}
+	}
 }
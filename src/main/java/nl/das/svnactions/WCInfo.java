@@ -0,0 +1,67 @@
+/*
+ * Copyright © 2022 Dutch Arrow Software - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the Apache Software License 2.0.
+ *
+ * Created 14 Oct 2022.
+ */
+
+
+package nl.das.svnactions;
+
+/**
+ * A snapshot of the metadata of a working copy, as kept by {@link SvnActions#getWCInfo()}.
+ */
+public final class WCInfo {
+	private final String url;
+	private final String branch;
+	private final long revision;
+	private final String uiPath;
+	/** Modification times and sizes of wc.db and flows.json when the snapshot was taken */
+	private final long[] stamp;
+
+	WCInfo(String url, String branch, long revision, String uiPath, long[] stamp) {
+		this.url = url;
+		this.branch = branch;
+		this.revision = revision;
+		this.uiPath = uiPath;
+		this.stamp = stamp;
+	}
+
+	/**
+	 * @return the repository URL of the working copy
+	 */
+	public String getUrl() {
+		return this.url;
+	}
+
+	/**
+	 * @return the name of the branch, "trunk" or null if the working copy is neither
+	 */
+	public String getBranch() {
+		return this.branch;
+	}
+
+	/**
+	 * @return the base revision of the working copy root
+	 */
+	public long getRevision() {
+		return this.revision;
+	}
+
+	/**
+	 * @return the URL path of the UI in the flows.json of the working copy, "" if there is none
+	 */
+	public String getUiPath() {
+		return this.uiPath;
+	}
+
+	long[] getStamp() {
+		return this.stamp;
+	}
+
+	@Override
+	public String toString() {
+		return this.branch + "@" + this.revision + " (" + this.url + ")";
+	}
+}
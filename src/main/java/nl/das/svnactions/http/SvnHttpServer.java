@@ -0,0 +1,335 @@
+/*
+ * Copyright © 2022 Dutch Arrow Software - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the Apache Software License 2.0.
+ *
+ * Created 14 Oct 2022.
+ */
+
+
+package nl.das.svnactions.http;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPOutputStream;
+
+import javax.json.Json;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonObjectBuilder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.tmatesoft.svn.core.SVNException;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import nl.das.svnactions.NodeChange;
+import nl.das.svnactions.NodeIndex;
+import nl.das.svnactions.SvnActions;
+import nl.das.svnactions.SvnErrors;
+import nl.das.svnactions.SvnSession;
+import nl.das.svnactions.Utils;
+
+/**
+ * Optional HTTP front for the read API's of SvnActions, built on the HTTP server of the JDK.<br><br>
+ * Every content response carries a strong ETag derived from the repository path and the revision in which the
+ * file was last changed. A request with a matching If-None-Match header is answered with 304 after one cheap
+ * info call, so a browser refresh of an unchanged flow does not fetch the flow again.
+ * Content of a given revision never changes and is sent as immutable; content of HEAD must be revalidated.
+ * Large responses are sent gzip-compressed when the client accepts it.<br><br>
+ * Resources (rev is -1 (HEAD) when omitted):<br>
+ * <table>
+ * <tr><td>GET /branches</td><td>names of all branches</td></tr>
+ * <tr><td>GET /trunk/revisions</td><td>latest revisions of flows.json, index.html, index.js and index.css</td></tr>
+ * <tr><td>GET /trunk/flow?rev=n</td><td>flows.json</td></tr>
+ * <tr><td>GET /trunk/ui/{html|js|css}?rev=n</td><td>uibuilder index file</td></tr>
+ * <tr><td>GET /trunk/nodes/{id}</td><td>last change and history of a node in flows.json (see {@link NodeIndex});
+ * 202 while the index is built for the first time</td></tr>
+ * <tr><td>GET /branches/{name}/revisions</td><td>as for trunk</td></tr>
+ * <tr><td>GET /branches/{name}/flow?rev=n</td><td>as for trunk</td></tr>
+ * <tr><td>GET /branches/{name}/ui/{html|js|css}?rev=n</td><td>as for trunk</td></tr>
+ * <tr><td>GET /branches/{name}/nodes/{id}</td><td>as for trunk</td></tr>
+ * </table>
+ * Properties:<br>
+ * <table>
+ * <tr><td>host</td><td>Name of the host where the manager runs on (e.g. localhost)</td></tr>
+ * <tr><td>port</td><td>Port number where the manager runs on (e.g.4545)</td></tr>
+ * <tr><td>http.threads</td><td>Number of request threads (default 8)</td></tr>
+ * <tr><td>http.gzip.min</td><td>Minimum response size in bytes to compress (default 1024)</td></tr>
+ * </table>
+ */
+public class SvnHttpServer implements AutoCloseable {
+	private static final Logger log = LoggerFactory.getLogger(SvnHttpServer.class);
+
+	private SvnActions actions;
+	private HttpServer server;
+	private ExecutorService executor;
+	private int gzipMin;
+
+	/**
+	 * Constructor
+	 *
+	 * @param session the repository session (its properties hold the settings above)
+	 * @throws IOException
+	 */
+	public SvnHttpServer(SvnSession session) throws IOException {
+		Properties props = session.getProperties();
+		this.actions = new SvnActions(session, props.getProperty("workdir"));
+		this.gzipMin = Integer.parseInt(props.getProperty("http.gzip.min", "1024"));
+		InetSocketAddress address = new InetSocketAddress(props.getProperty("host", "localhost"), Integer.parseInt(props.getProperty("port", "4545")));
+		this.server = HttpServer.create(address, 0);
+		this.executor = Executors.newFixedThreadPool(Integer.parseInt(props.getProperty("http.threads", "8")));
+		this.server.setExecutor(this.executor);
+		this.server.createContext("/", this::handle);
+	}
+
+	public void start() {
+		this.server.start();
+	}
+
+	public InetSocketAddress getAddress() {
+		return this.server.getAddress();
+	}
+
+	@Override
+	public void close() {
+		this.server.stop(0);
+		this.executor.shutdownNow();
+	}
+
+	private void handle(HttpExchange ex) throws IOException {
+		try {
+			if (!ex.getRequestMethod().equals("GET")) {
+				send(ex, 405, "text/plain", "Method not allowed".getBytes(StandardCharsets.UTF_8), null);
+				return;
+			}
+			String[] parts = ex.getRequestURI().getRawPath().replaceAll("^/+|/+$", "").split("/");
+			for (int i = 0; i < parts.length; i++) {
+				parts[i] = URLDecoder.decode(parts[i], StandardCharsets.UTF_8);
+			}
+			long rev = getRevision(ex);
+			if ((rev == 0) || (rev < -1)) {
+				send(ex, 400, "text/plain", "Invalid revision".getBytes(StandardCharsets.UTF_8), null);
+				return;
+			}
+			if (parts.length == 1 && parts[0].equals("branches")) {
+				sendList(ex, this.actions.getAllBranches());
+			} else if (parts.length >= 2 && parts[0].equals("trunk")) {
+				route(ex, "trunk", parts, 1, rev);
+			} else if (parts.length >= 3 && parts[0].equals("branches")) {
+				route(ex, parts[1], parts, 2, rev);
+			} else {
+				send(ex, 404, "text/plain", "Not found".getBytes(StandardCharsets.UTF_8), null);
+			}
+		} catch (SVNException e) {
+			if (SvnErrors.isNotFound(e)) {
+				send(ex, 404, "text/plain", e.getMessage().getBytes(StandardCharsets.UTF_8), null);
+			} else {
+				log.warn("{} failed", ex.getRequestURI(), e);
+				send(ex, 500, "text/plain", e.getMessage().getBytes(StandardCharsets.UTF_8), null);
+			}
+		} catch (NumberFormatException e) {
+			send(ex, 400, "text/plain", "Invalid revision".getBytes(StandardCharsets.UTF_8), null);
+		} catch (IOException | RuntimeException e) {
+			log.warn("{} failed", ex.getRequestURI(), e);
+			send(ex, 500, "text/plain", String.valueOf(e.getMessage()).getBytes(StandardCharsets.UTF_8), null);
+		} finally {
+			ex.close();
+		}
+	}
+
+	/**
+	 * @param env "trunk" or branchName
+	 * @param parts the path elements of the request
+	 * @param i index of the first path element after the environment
+	 */
+	private void route(HttpExchange ex, String env, String[] parts, int i, long rev) throws SVNException, IOException {
+		boolean trunk = env.equals("trunk");
+		if ((parts.length == i + 1) && parts[i].equals("revisions")) {
+			long latest = trunk ? this.actions.getLatestTrunkRevision() : this.actions.getLatestBranchRevision(env);
+			String etag = etag(env + "/revisions", latest, false);
+			if (notModified(ex, etag)) {
+				return;
+			}
+			long[] revs = trunk ? this.actions.getLatestTrunkRevisions() : this.actions.getLatestBranchRevisions(env);
+			JsonArrayBuilder ab = Json.createArrayBuilder();
+			for (long r : revs) {
+				ab.add(r);
+			}
+			ex.getResponseHeaders().set("Cache-Control", "no-cache");
+			send(ex, 200, "application/json", ab.build().toString().getBytes(StandardCharsets.UTF_8), etag);
+		} else if ((parts.length == i + 1) && parts[i].equals("flow")) {
+			long changed = this.actions.getLastChangedRevision(env, "flows.json", rev);
+			if (conditional(ex, env + "/flows.json", changed, rev)) {
+				return;
+			}
+			// Not at the changed revision: for a file of a branch that did not change since the copy, that is a
+			// revision of the trunk from before the branch existed
+			ByteBuffer flow = trunk ? this.actions.getTrunkFlowBuffer(rev) : this.actions.getBranchFlowBuffer(env, rev, false);
+			sendContent(ex, "application/json", flow, env + "/flows.json", changed);
+		} else if ((parts.length == i + 2) && parts[i].equals("ui") && parts[i + 1].matches("html|js|css")) {
+			String type = parts[i + 1];
+			String uiPath = this.actions.getUiPath(env, rev);
+			String path = "uibuilder/" + uiPath + "/src/index." + type;
+			long changed = this.actions.getLastChangedRevision(env, path, rev);
+			if (conditional(ex, env + "/" + path, changed, rev)) {
+				return;
+			}
+			ByteBuffer content = trunk ? this.actions.getTrunkUiBuffer(type, rev, uiPath) : this.actions.getBranchUiBuffer(type, env, rev, false, uiPath);
+			String mime = type.equals("html") ? "text/html" : type.equals("js") ? "application/javascript" : "text/css";
+			sendContent(ex, mime, content, env + "/" + path, changed);
+		} else if ((parts.length == i + 2) && parts[i].equals("nodes")) {
+			NodeIndex index = this.actions.getSession().getNodeIndex();
+			if (index.isBuilding(env)) {
+				ex.getResponseHeaders().set("Retry-After", "5");
+				send(ex, 202, "text/plain", "The node index is being built".getBytes(StandardCharsets.UTF_8), null);
+				return;
+			}
+			index.update(env);
+			NodeChange last = index.getLastChange(env, parts[i + 1]);
+			if (last == null) {
+				send(ex, 404, "text/plain", "Not found".getBytes(StandardCharsets.UTF_8), null);
+				return;
+			}
+			JsonArrayBuilder history = Json.createArrayBuilder();
+			for (NodeChange c : index.getHistory(env, parts[i + 1])) {
+				history.add(toJson(c));
+			}
+			ex.getResponseHeaders().set("Cache-Control", "no-cache");
+			send(ex, 200, "application/json", toJson(last).add("id", last.getNodeId()).add("history", history).build().toString().getBytes(StandardCharsets.UTF_8), null);
+		} else {
+			send(ex, 404, "text/plain", "Not found".getBytes(StandardCharsets.UTF_8), null);
+		}
+	}
+
+	private static JsonObjectBuilder toJson(NodeChange c) {
+		JsonObjectBuilder ob = Json.createObjectBuilder();
+		ob.add("revision", c.getRevision());
+		ob.add("author", c.getAuthor());
+		ob.add("date", c.getDate());
+		if (c.isDeleted()) {
+			ob.add("deleted", true);
+		} else {
+			ob.add("hash", c.getHash());
+		}
+		return ob;
+	}
+
+	/**
+	 * Set the caching headers and answer with 304 if the client has the current version
+	 *
+	 * @return true if the 304 was sent
+	 */
+	private boolean conditional(HttpExchange ex, String path, long changed, long rev) throws IOException {
+		ex.getResponseHeaders().set("Cache-Control", rev == -1 ? "no-cache" : "public, max-age=31536000, immutable");
+		ex.getResponseHeaders().set("Vary", "Accept-Encoding");
+		// Whether the body is compressed depends on its size, which is not known yet: both tags are current
+		return notModified(ex, etag(path, changed, false), etag(path, changed, true));
+	}
+
+	/**
+	 * Answer with 304 if the If-None-Match header holds one of the tags
+	 *
+	 * @return true if the 304 was sent
+	 */
+	private boolean notModified(HttpExchange ex, String... etags) throws IOException {
+		String inm = ex.getRequestHeaders().getFirst("If-None-Match");
+		if (inm == null) {
+			return false;
+		}
+		List<String> tags = List.of(inm.trim().split("\\s*,\\s*"));
+		for (String etag : etags) {
+			if (tags.contains("*") || tags.contains(etag)) {
+				ex.getResponseHeaders().set("ETag", etag);
+				ex.sendResponseHeaders(304, -1);
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void sendContent(HttpExchange ex, String mime, ByteBuffer content, String path, long changed) throws IOException {
+		boolean gzip = acceptsGzip(ex) && (content.remaining() >= this.gzipMin);
+		Headers hdrs = ex.getResponseHeaders();
+		hdrs.set("Content-Type", mime + "; charset=utf-8");
+		hdrs.set("ETag", etag(path, changed, gzip));
+		if (!gzip) {
+			ex.sendResponseHeaders(200, content.remaining() == 0 ? -1 : content.remaining());
+			if (content.hasRemaining()) {
+				try (OutputStream os = ex.getResponseBody()) {
+					Utils.transfer(content, Channels.newChannel(os));
+				}
+			}
+			return;
+		}
+		hdrs.set("Content-Encoding", "gzip");
+		ex.sendResponseHeaders(200, 0);
+		try (OutputStream os = new GZIPOutputStream(ex.getResponseBody(), 8192)) {
+			Utils.transfer(content, Channels.newChannel(os));
+		}
+	}
+
+	private void sendList(HttpExchange ex, List<String> list) throws IOException {
+		JsonArrayBuilder ab = Json.createArrayBuilder();
+		for (String s : list) {
+			ab.add(s);
+		}
+		send(ex, 200, "application/json", ab.build().toString().getBytes(StandardCharsets.UTF_8), null);
+	}
+
+	private void send(HttpExchange ex, int status, String mime, byte[] body, String etag) throws IOException {
+		ex.getResponseHeaders().set("Content-Type", mime + "; charset=utf-8");
+		if (etag != null) {
+			ex.getResponseHeaders().set("ETag", etag);
+		}
+		ex.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+		if (body.length > 0) {
+			try (OutputStream os = ex.getResponseBody()) {
+				os.write(body);
+			}
+		}
+	}
+
+	/**
+	 * A strong ETag of (path, last changed revision). The gzipped representation has its own tag.
+	 */
+	private static String etag(String path, long changed, boolean gzip) {
+		try {
+			MessageDigest md = MessageDigest.getInstance("SHA-1");
+			byte[] hash = md.digest((path + "@" + changed).getBytes(StandardCharsets.UTF_8));
+			return "\"" + changed + "-" + Utils.bytesToHex(hash).substring(0, 16).toLowerCase() + (gzip ? "-gz" : "") + "\"";
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static boolean acceptsGzip(HttpExchange ex) {
+		String ae = ex.getRequestHeaders().getFirst("Accept-Encoding");
+		return (ae != null) && ae.contains("gzip");
+	}
+
+	private static long getRevision(HttpExchange ex) {
+		String query = ex.getRequestURI().getQuery();
+		if (query != null) {
+			for (String kv : query.split("&")) {
+				if (kv.startsWith("rev=")) {
+					return Long.parseLong(kv.substring(4));
+				}
+			}
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright © 2022 Dutch Arrow Software - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the Apache Software License 2.0.
+ *
+ * Created 14 Oct 2022.
+ */
+
+
+package nl.das.svnactions;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ */
+public class ContentStoreTests {
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	@Test
+	public void testStoreSurvivesReopen() throws IOException {
+		Path dir = this.tmp.getRoot().toPath();
+		byte[] flow = "[{\"id\":\"a1\",\"type\":\"tab\"}]".getBytes(StandardCharsets.UTF_8);
+		try (ContentStore store = new ContentStore(dir)) {
+			store.put("trunk/flows.json", 10, null, flow);
+			store.put("branches/b1/flows.json", 12, null, flow);
+			assertArrayEquals(flow, store.get("trunk/flows.json", 10));
+			assertNull(store.get("trunk/flows.json", 11));
+		}
+		try (ContentStore store = new ContentStore(dir)) {
+			assertArrayEquals(flow, store.get("trunk/flows.json", 10));
+			assertArrayEquals(flow, store.get("branches/b1/flows.json", 12));
+			assertEquals(store.getChecksum("trunk/flows.json", 10), store.getChecksum("branches/b1/flows.json", 12));
+		}
+		// Identical content is stored once
+		assertEquals(1, Files.readAllLines(dir.resolve("objects.idx")).stream().filter(l -> l.startsWith("O ")).count());
+	}
+
+	@Test
+	public void testSharedDirectory() throws IOException {
+		Path dir = this.tmp.getRoot().toPath();
+		byte[] a = "a".getBytes(StandardCharsets.UTF_8);
+		byte[] b = "b".getBytes(StandardCharsets.UTF_8);
+		try (ContentStore s1 = new ContentStore(dir); ContentStore s2 = new ContentStore(dir)) {
+			s1.put("trunk/flows.json", 1, null, a);
+			s2.put("trunk/flows.json", 2, null, b);
+			// s2 read the index lines of s1 before it appended
+			assertArrayEquals(a, s2.get("trunk/flows.json", 1));
+			s1.put("trunk/flows.json", 3, null, a);
+		}
+		// A crash in the middle of a line
+		Files.write(dir.resolve("objects.idx"), "P 0123".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+		try (ContentStore store = new ContentStore(dir)) {
+			store.put("trunk/flows.json", 4, null, b);
+		}
+		try (ContentStore store = new ContentStore(dir)) {
+			assertArrayEquals(a, store.get("trunk/flows.json", 1));
+			assertArrayEquals(b, store.get("trunk/flows.json", 2));
+			assertArrayEquals(a, store.get("trunk/flows.json", 3));
+			assertArrayEquals(b, store.get("trunk/flows.json", 4));
+		}
+		assertEquals(2, Files.readAllLines(dir.resolve("objects.idx")).stream().filter(l -> l.startsWith("O ")).count());
+	}
+
+	@Test(expected = IOException.class)
+	public void testChecksumMismatch() throws IOException {
+		try (ContentStore store = new ContentStore(this.tmp.getRoot().toPath())) {
+			store.put("trunk/flows.json", 10, "00000000000000000000000000000000", new byte[] {1, 2, 3});
+		}
+	}
+}
@@ -39,7 +39,7 @@ public class InfoTests {
 	@Test
 	public void testWorkDirInfo() {
 		try {
-			String branchName = svnActions.getWCUrl().replace(props.getProperty("repohost") + props.getProperty("path.branches") + "/", "");
+			String branchName = svnActions.getWCInfo().getBranch();
 			System.out.println(branchName);
 			List<String> dirtyPaths = svnActions.getWCModifications();
 			for ( String s : dirtyPaths) {
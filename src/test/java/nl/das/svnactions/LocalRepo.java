@@ -0,0 +1,165 @@
+/*
+ * Copyright © 2022 Dutch Arrow Software - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the Apache Software License 2.0.
+ *
+ * Created 14 Oct 2022.
+ */
+
+
+package nl.das.svnactions;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+
+import org.junit.rules.TemporaryFolder;
+import org.tmatesoft.svn.core.SVNDepth;
+import org.tmatesoft.svn.core.SVNException;
+import org.tmatesoft.svn.core.SVNURL;
+import org.tmatesoft.svn.core.internal.io.fs.FSRepositoryFactory;
+import org.tmatesoft.svn.core.io.SVNRepositoryFactory;
+import org.tmatesoft.svn.core.wc.SVNRevision;
+import org.tmatesoft.svn.core.wc2.SvnCheckout;
+import org.tmatesoft.svn.core.wc2.SvnCommit;
+import org.tmatesoft.svn.core.wc2.SvnCopySource;
+import org.tmatesoft.svn.core.wc2.SvnOperationFactory;
+import org.tmatesoft.svn.core.wc2.SvnRemoteCopy;
+import org.tmatesoft.svn.core.wc2.SvnRemoteDelete;
+import org.tmatesoft.svn.core.wc2.SvnRemoteMkDir;
+import org.tmatesoft.svn.core.wc2.SvnScheduleForAddition;
+import org.tmatesoft.svn.core.wc2.SvnScheduleForRemoval;
+import org.tmatesoft.svn.core.wc2.SvnTarget;
+
+/**
+ * A local (file://) repository for the tests, with the layout of the properties of {@link #props()}:
+ * trunk/nodered-live, trunk/sql and branches.
+ */
+public class LocalRepo implements AutoCloseable {
+	private TemporaryFolder tmp;
+	private SVNURL url;
+	private SvnOperationFactory of = new SvnOperationFactory();
+
+	public LocalRepo(TemporaryFolder tmp) throws IOException, SVNException {
+		this.tmp = tmp;
+		FSRepositoryFactory.setup();
+		this.url = SVNRepositoryFactory.createLocalRepository(tmp.newFolder(), true, false);
+		SvnRemoteMkDir mkdir = this.of.createRemoteMkDir();
+		mkdir.addTarget(SvnTarget.fromURL(url("trunk/nodered-live")));
+		mkdir.addTarget(SvnTarget.fromURL(url("trunk/sql")));
+		mkdir.addTarget(SvnTarget.fromURL(url("branches")));
+		mkdir.setMakeParents(true);
+		mkdir.setCommitMessage("layout");
+		mkdir.run();
+	}
+
+	/**
+	 * @param path path relative to the repository root
+	 * @return the URL of the path
+	 */
+	public SVNURL url(String path) throws SVNException {
+		return this.url.appendPath(path, false);
+	}
+
+	/**
+	 * @return the properties of an {@link SvnSession} on this repository, without a content store
+	 */
+	public Properties props() {
+		Properties props = new Properties();
+		props.setProperty("repohost", "file://");
+		props.setProperty("path.trunk", this.url.getPath() + "/trunk/nodered-live");
+		props.setProperty("path.branches", this.url.getPath() + "/branches");
+		props.setProperty("path.sql", this.url.getPath() + "/trunk/sql");
+		props.setProperty("username", "");
+		props.setProperty("password", "");
+		props.setProperty("store.dir", "");
+		return props;
+	}
+
+	/**
+	 * Check out a path into a new folder
+	 */
+	public File checkout(String path) throws IOException, SVNException {
+		File wc = this.tmp.newFolder();
+		SvnCheckout co = this.of.createCheckout();
+		co.setSource(SvnTarget.fromURL(url(path)));
+		co.setSingleTarget(SvnTarget.fromFile(wc));
+		co.run();
+		return wc;
+	}
+
+	/**
+	 * Write a file of a working copy, creating its folders
+	 */
+	public static void write(File wc, String path, String content) throws IOException {
+		Path file = wc.toPath().resolve(path);
+		Files.createDirectories(file.getParent());
+		Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Add the given paths (a missing file is created with its name as content) and commit everything
+	 *
+	 * @return the new revision
+	 */
+	public long commit(File wc, String... add) throws IOException, SVNException {
+		for (String path : add) {
+			File f = new File(wc, path);
+			if (!f.exists()) {
+				write(wc, path, path);
+			}
+			SvnScheduleForAddition sa = this.of.createScheduleForAddition();
+			sa.setSingleTarget(SvnTarget.fromFile(f));
+			sa.setDepth(SVNDepth.EMPTY);
+			sa.setAddParents(true);
+			sa.run();
+		}
+		SvnCommit ci = this.of.createCommit();
+		ci.setSingleTarget(SvnTarget.fromFile(wc));
+		ci.setDepth(SVNDepth.INFINITY);
+		ci.setCommitMessage("test");
+		return ci.run().getNewRevision();
+	}
+
+	/**
+	 * Schedule a path of a working copy for removal
+	 */
+	public void remove(File wc, String path) throws SVNException {
+		SvnScheduleForRemoval rm = this.of.createScheduleForRemoval();
+		rm.setSingleTarget(SvnTarget.fromFile(new File(wc, path)));
+		rm.run();
+	}
+
+	/**
+	 * Copy a path at HEAD in the repository
+	 *
+	 * @return the new revision
+	 */
+	public long copy(String from, String to) throws SVNException {
+		SvnRemoteCopy cp = this.of.createRemoteCopy();
+		cp.addCopySource(SvnCopySource.create(SvnTarget.fromURL(url(from)), SVNRevision.HEAD));
+		cp.setSingleTarget(SvnTarget.fromURL(url(to)));
+		cp.setCommitMessage("copy");
+		return cp.run().getNewRevision();
+	}
+
+	/**
+	 * Delete a path in the repository
+	 *
+	 * @return the new revision
+	 */
+	public long delete(String path) throws SVNException {
+		SvnRemoteDelete rm = this.of.createRemoteDelete();
+		rm.setSingleTarget(SvnTarget.fromURL(url(path)));
+		rm.setCommitMessage("delete");
+		return rm.run().getNewRevision();
+	}
+
+	@Override
+	public void close() {
+		this.of.dispose();
+	}
+}
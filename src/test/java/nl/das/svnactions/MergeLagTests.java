@@ -0,0 +1,80 @@
+/*
+ * Copyright © 2022 Dutch Arrow Software - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the Apache Software License 2.0.
+ *
+ * Created 14 Oct 2022.
+ */
+
+
+package nl.das.svnactions;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.tmatesoft.svn.core.SVNMergeRange;
+
+/**
+ * The branch was copied from trunk revision 10; trunk revisions 11, 13, 15 and 17 changed the NodeRED files.
+ * The report itself runs against a local (file://) repository.
+ */
+public class MergeLagTests {
+	private static final List<Long> TRUNK = Arrays.asList(5L, 11L, 13L, 15L, 17L);
+
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	@Test
+	public void testNoMergeInfo() {
+		MergeLag lag = SvnActions.getMergeLag("b1", 10, Collections.emptyList(), TRUNK);
+		assertEquals(Arrays.asList(11L, 13L, 15L, 17L), lag.getUnmergedRevisions());
+		assertEquals(10, lag.getLatestMergedRevision());
+	}
+
+	@Test
+	public void testCherryPick() {
+		// Only r15 was merged: the revisions between the copy and the cherry-pick are still missing
+		MergeLag lag = SvnActions.getMergeLag("b1", 10, Collections.singletonList(new SVNMergeRange(14, 15, true)), TRUNK);
+		assertEquals(Arrays.asList(11L, 13L, 17L), lag.getUnmergedRevisions());
+		assertEquals(15, lag.getLatestMergedRevision());
+	}
+
+	@Test
+	public void testMultipleRanges() {
+		List<SVNMergeRange> ranges = Arrays.asList(new SVNMergeRange(10, 12, true), new SVNMergeRange(14, 16, true));
+		MergeLag lag = SvnActions.getMergeLag("b1", 10, ranges, TRUNK);
+		assertEquals(Arrays.asList(13L, 17L), lag.getUnmergedRevisions());
+		assertEquals(16, lag.getLatestMergedRevision());
+		assertEquals(2, lag.getCount());
+	}
+
+	@Test
+	public void testReportOverRepository() throws Exception {
+		try (LocalRepo repo = new LocalRepo(this.tmp)) {
+			File trunk = repo.checkout("trunk/nodered-live");
+			long r2 = repo.commit(trunk, "flows.json", "uibuilder/myui/src/index.html");
+			repo.copy("trunk/nodered-live", "branches/b1");
+			File b1 = repo.checkout("branches/b1");
+			// Commits on the branch do not move the copy revision
+			LocalRepo.write(b1, "flows.json", "b1");
+			repo.commit(b1);
+			LocalRepo.write(trunk, "uibuilder/myui/src/index.html", "new");
+			long r5 = repo.commit(trunk);
+			// Not a NodeRED file
+			repo.commit(trunk, "lib/other.txt");
+
+			try (SvnActions actions = new SvnActions(repo.props())) {
+				MergeLag lag = actions.getMergeLag(Collections.singletonList("b1")).get("b1");
+				assertEquals(Collections.singletonList(r5), lag.getUnmergedRevisions());
+				assertEquals(r2, lag.getLatestMergedRevision());
+			}
+		}
+	}
+}
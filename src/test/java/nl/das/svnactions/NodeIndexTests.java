@@ -0,0 +1,192 @@
+/*
+ * Copyright © 2022 Dutch Arrow Software - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the Apache Software License 2.0.
+ *
+ * Created 14 Oct 2022.
+ */
+
+
+package nl.das.svnactions;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Indexes the flows.json of a local (file://) repository
+ */
+public class NodeIndexTests {
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	@Test
+	public void testIncrementalIndex() throws Exception {
+		try (LocalRepo repo = new LocalRepo(this.tmp)) {
+			File wc = repo.checkout("trunk/nodered-live");
+			LocalRepo.write(wc, "flows.json", flow("a", "1", "b", "1"));
+			long r2 = repo.commit(wc, "flows.json");
+			long r3 = commit(repo, wc, flow("a", "1", "b", "2"));
+			long r4 = commit(repo, wc, flow("b", "2", "c", "1"));
+
+			Path dir = this.tmp.getRoot().toPath().resolve("index");
+			try (SvnSession session = new SvnSession(repo.props())) {
+				NodeIndex index = new NodeIndex(session, dir);
+				assertEquals(r4, index.update("trunk"));
+				assertTrue(index.getLastChange("trunk", "a").isDeleted());
+				assertEquals(Arrays.asList(r2, r4), revisions(index.getHistory("trunk", "a")));
+				assertEquals(Arrays.asList(r2, r3), revisions(index.getHistory("trunk", "b")));
+				assertEquals(Arrays.asList("b", "c"), new ArrayList<>(index.getLastChanges("trunk").keySet()));
+				index.close();
+
+				// Loaded from disk, then only the new revision is indexed
+				index = new NodeIndex(session, dir);
+				assertEquals(r4, index.getRevision("trunk"));
+				assertEquals(r3, index.getLastChange("trunk", "b").getRevision());
+				long r5 = commit(repo, wc, flow("b", "3", "c", "1"));
+				index.update("trunk");
+				assertEquals(Arrays.asList(r2, r3, r5), revisions(index.getHistory("trunk", "b")));
+				assertEquals(r4, index.getLastChange("trunk", "c").getRevision());
+				assertNull(index.getLastChange("trunk", "x"));
+				index.close();
+
+				// An incomplete revision at the end is cut off
+				Files.write(dir.resolve("trunk.nodes"), "N 99 - b\n".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+				index = new NodeIndex(session, dir);
+				assertEquals(r5, index.getLastChange("trunk", "b").getRevision());
+				index.close();
+
+				// A revision with a change of another revision is cut off as a whole
+				Files.write(dir.resolve("trunk.nodes"), "N 100 - b\nN 99 - c\nR 100 0 x\n".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+				index = new NodeIndex(session, dir);
+				assertEquals(r5, index.getLastChange("trunk", "b").getRevision());
+				assertEquals(r5, index.getRevision("trunk"));
+				index.close();
+			}
+		}
+	}
+
+	@Test
+	public void testBranchStartsFromTrunk() throws Exception {
+		try (LocalRepo repo = new LocalRepo(this.tmp)) {
+			File wc = repo.checkout("trunk/nodered-live");
+			LocalRepo.write(wc, "flows.json", flow("a", "1", "b", "1"));
+			long r2 = repo.commit(wc, "flows.json");
+			long r3 = commit(repo, wc, flow("b", "2", "c", "1"));
+			repo.copy("trunk/nodered-live", "branches/b1");
+			File b1 = repo.checkout("branches/b1");
+			long r5 = commit(repo, b1, flow("b", "2", "c", "2"));
+			// A trunk change after the copy is not in the branch
+			long r6 = commit(repo, wc, flow("b", "3", "c", "1"));
+			repo.copy("branches/b1", "branches/b2");
+			File b2 = repo.checkout("branches/b2");
+			long r8 = commit(repo, b2, flow("c", "3"));
+
+			Path dir = this.tmp.getRoot().toPath().resolve("index");
+			try (SvnSession session = new SvnSession(repo.props())) {
+				NodeIndex index = new NodeIndex(session, dir);
+				// The first build runs in the background
+				while (index.isBuilding("b2")) {
+					Thread.sleep(20);
+				}
+				assertEquals(Arrays.asList(r2, r3), revisions(index.getHistory("b1", "b")));
+				assertEquals(Arrays.asList(r3, r5), revisions(index.getHistory("b1", "c")));
+				assertEquals(Arrays.asList(r2, r3, r8), revisions(index.getHistory("b2", "b")));
+				assertEquals(Arrays.asList(r3, r5, r8), revisions(index.getHistory("b2", "c")));
+				assertTrue(index.getLastChange("b2", "a").isDeleted());
+				assertEquals(Arrays.asList(r2, r3, r6), revisions(index.getHistory("trunk", "b")));
+				assertFalse(index.isBuilding("b1"));
+				index.close();
+
+				// The branches only store their own revisions
+				String b1Index = new String(Files.readAllBytes(dir.resolve("b1.nodes")), StandardCharsets.UTF_8);
+				assertTrue(b1Index, b1Index.startsWith("B 4 " + r3 + " trunk\n"));
+				assertFalse(b1Index, b1Index.contains("N " + r2 + " "));
+				assertTrue(b1Index, b1Index.contains("N " + r5 + " "));
+
+				index = new NodeIndex(session, dir);
+				assertEquals(Arrays.asList(r3, r5, r8), revisions(index.getHistory("b2", "c")));
+				assertEquals(r8, index.update("b2"));
+				index.close();
+			}
+		}
+	}
+
+	@Test
+	public void testBranchCreatedAgain() throws Exception {
+		try (LocalRepo repo = new LocalRepo(this.tmp)) {
+			File wc = repo.checkout("trunk/nodered-live");
+			LocalRepo.write(wc, "flows.json", flow("a", "1"));
+			long r2 = repo.commit(wc, "flows.json");
+			repo.copy("trunk/nodered-live", "branches/b1");
+			File b1 = repo.checkout("branches/b1");
+			long r4 = commit(repo, b1, flow("a", "2", "old", "1"));
+
+			Path dir = this.tmp.getRoot().toPath().resolve("index");
+			try (SvnSession session = new SvnSession(repo.props())) {
+				NodeIndex index = new NodeIndex(session, dir);
+				assertEquals(r4, index.update("b1"));
+				assertEquals(Arrays.asList(r2, r4), revisions(index.getHistory("b1", "a")));
+
+				repo.delete("branches/b1");
+				repo.copy("trunk/nodered-live", "branches/b1");
+				b1 = repo.checkout("branches/b1");
+				long r7 = commit(repo, b1, flow("a", "1", "new", "1"));
+				assertEquals(r7, index.update("b1"));
+				assertEquals(Arrays.asList(r2), revisions(index.getHistory("b1", "a")));
+				assertNull(index.getLastChange("b1", "old"));
+				assertEquals(Arrays.asList(r7), revisions(index.getHistory("b1", "new")));
+				index.close();
+
+				// The file of the old branch is gone as well
+				index = new NodeIndex(session, dir);
+				assertNull(index.getLastChange("b1", "old"));
+				assertEquals(r7, index.update("b1"));
+				index.close();
+			}
+		}
+	}
+
+	/**
+	 * A flow of tab nodes with the given ids and labels
+	 */
+	private static String flow(String... idLabels) {
+		StringBuilder sb = new StringBuilder("[");
+		for (int i = 0; i < idLabels.length; i += 2) {
+			sb.append(i == 0 ? "" : ",").append("{\"id\":\"").append(idLabels[i]).append("\",\"type\":\"tab\",\"label\":\"").append(idLabels[i + 1]).append("\"}");
+		}
+		return sb.append("]").toString();
+	}
+
+	private static List<Long> revisions(List<NodeChange> changes) {
+		List<Long> revs = new ArrayList<>();
+		for (NodeChange c : changes) {
+			revs.add(c.getRevision());
+		}
+		return revs;
+	}
+
+	/**
+	 * Write the flows.json and commit it
+	 *
+	 * @return the new revision
+	 */
+	private static long commit(LocalRepo repo, File wc, String flow) throws Exception {
+		LocalRepo.write(wc, "flows.json", flow);
+		return repo.commit(wc);
+	}
+}
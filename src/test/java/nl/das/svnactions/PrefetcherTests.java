@@ -0,0 +1,70 @@
+/*
+ * Copyright © 2022 Dutch Arrow Software - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the Apache Software License 2.0.
+ *
+ * Created 14 Oct 2022.
+ */
+
+
+package nl.das.svnactions;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Properties;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class PrefetcherTests {
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	@Test
+	public void testBranchUiAfterPrefetch() throws Exception {
+		try (LocalRepo repo = new LocalRepo(this.tmp)) {
+			File trunk = repo.checkout("trunk/nodered-live");
+			LocalRepo.write(trunk, "flows.json", "[{\"id\":\"u1\",\"type\":\"uibuilder\",\"url\":\"myui\"}]");
+			repo.commit(trunk, "flows.json", "uibuilder/myui/src/index.html", "uibuilder/myui/src/index.js", "uibuilder/myui/src/index.css");
+			repo.copy("trunk/nodered-live", "branches/b1");
+			File b1 = repo.checkout("branches/b1");
+			LocalRepo.write(b1, "uibuilder/myui/src/index.html", "<html/>");
+			repo.commit(b1);
+
+			Properties props = repo.props();
+			props.setProperty("prefetch.ttl", "600000");
+			props.setProperty("prefetch.threads", "1");
+			try (SvnActions actions = new SvnActions(props)) {
+				actions.prefetchBranch("b1").get();
+				long[] rev = actions.getLatestBranchRevisions("b1");
+				// Everything comes from the prefetch: the repository is not needed any more
+				Files.move(Paths.get(repo.url("").getPath()), this.tmp.getRoot().toPath().resolve("gone"));
+				assertEquals("<html/>", actions.getBranchUi("html", "b1", rev[1], false));
+				assertEquals("uibuilder/myui/src/index.js", actions.getBranchUi("js", "b1", rev[2], false));
+			}
+		}
+	}
+
+	@Test
+	public void testLastUibuilderNode() throws Exception {
+		try (LocalRepo repo = new LocalRepo(this.tmp)) {
+			File trunk = repo.checkout("trunk/nodered-live");
+			String flow = "[{\"id\":\"u1\",\"type\":\"uibuilder\",\"url\":\"first\"},{\"id\":\"u2\",\"type\":\"uibuilder\",\"url\":\"second\"}]";
+			LocalRepo.write(trunk, "flows.json", flow);
+			repo.commit(trunk, "flows.json", "uibuilder/first/src/index.html", "uibuilder/second/src/index.html");
+			repo.copy("trunk/nodered-live", "branches/b1");
+
+			try (SvnActions actions = new SvnActions(repo.props())) {
+				actions.prefetchBranch("b1").get();
+				long[] rev = actions.getLatestBranchRevisions("b1");
+				assertEquals(SvnActions.getUiUrl(new StringReader(flow)), actions.getUiPath("b1", rev[0]));
+				assertEquals("uibuilder/second/src/index.html", actions.getBranchUi("html", "b1", rev[1], false));
+			}
+		}
+	}
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright © 2022 Dutch Arrow Software - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the Apache Software License 2.0.
+ *
+ * Created 14 Oct 2022.
+ */
+
+
+package nl.das.svnactions;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ProcessRunnerTests {
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	/**
+	 * More processes than two drain threads each of 8, each writing more than a pipe holds on both streams and
+	 * then running a while longer. A process whose output is not drained right away blocks on the full pipe and
+	 * does not end within the timeout.
+	 */
+	@Test(timeout = 60000)
+	public void testManyChattyProcesses() throws Exception {
+		Assume.assumeFalse(System.getProperty("os.name").toLowerCase().startsWith("windows"));
+		Properties props = new Properties();
+		props.setProperty("process.timeout", "7000");
+		props.setProperty("process.tail", "2");
+		File dir = this.tmp.getRoot();
+		// 2000 lines of 100 bytes: 200 KB per stream
+		String chatty = "i=0; while [ $i -lt 2000 ]; do "
+				+ "echo \"out $i ..........................................................................................\"; "
+				+ "echo \"err $i ..........................................................................................\" >&2; "
+				+ "i=$((i+1)); done; sleep 4";
+		int n = 8;
+		ExecutorService callers = Executors.newFixedThreadPool(n);
+		try (ProcessRunner runner = new ProcessRunner(props)) {
+			List<Future<ProcessResult>> results = new ArrayList<>();
+			for (int i = 0; i < n; i++) {
+				results.add(callers.submit(() -> runner.run(dir, ProcessRunner.shell(chatty))));
+			}
+			for (Future<ProcessResult> f : results) {
+				ProcessResult result = f.get();
+				assertTrue(result.toString(), result.isSuccess());
+				assertEquals(2, result.getOutput().size());
+				assertTrue(result.getOutput().get(1).startsWith("out 1999 "));
+				assertTrue(result.getErrors().get(1).startsWith("err 1999 "));
+			}
+		} finally {
+			callers.shutdownNow();
+		}
+	}
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright © 2022 Dutch Arrow Software - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the Apache Software License 2.0.
+ *
+ * Created 14 Oct 2022.
+ */
+
+
+package nl.das.svnactions;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.tmatesoft.svn.core.SVNLogEntry;
+import org.tmatesoft.svn.core.SVNLogEntryPath;
+import org.tmatesoft.svn.core.SVNNodeKind;
+
+/**
+ * The classification of the changed paths of a log entry into change events.
+ */
+public class RevisionWatcherTests {
+	private static final String TRUNK = "/trunk/nodered-live";
+	private static final String BRANCHES = "/branches";
+	private static final String SQL = "/trunk/sql";
+
+	@Test
+	public void testBranchCreated() {
+		List<ChangeEvent> events = collect(
+				path("/branches/b1", SVNLogEntryPath.TYPE_ADDED, SVNNodeKind.DIR),
+				path("/branches/b2", SVNLogEntryPath.TYPE_REPLACED, SVNNodeKind.DIR));
+		assertEquals(2, events.size());
+		assertEvent(events.get(0), ChangeEvent.Type.BRANCH_CREATED, "b1", "/branches/b1");
+		assertEvent(events.get(1), ChangeEvent.Type.BRANCH_CREATED, "b2", "/branches/b2");
+	}
+
+	@Test
+	public void testBranchDeleted() {
+		List<ChangeEvent> events = collect(path("/branches/b1", SVNLogEntryPath.TYPE_DELETED, SVNNodeKind.DIR));
+		assertEquals(1, events.size());
+		assertEvent(events.get(0), ChangeEvent.Type.BRANCH_DELETED, "b1", "/branches/b1");
+	}
+
+	@Test
+	public void testBranchModified() {
+		// A property change on the branch root is neither a creation nor a deletion
+		assertTrue(collect(path("/branches/b1", SVNLogEntryPath.TYPE_MODIFIED, SVNNodeKind.DIR)).isEmpty());
+	}
+
+	@Test
+	public void testTrunkChanges() {
+		List<ChangeEvent> events = collect(
+				path("/trunk/nodered-live/flows.json", SVNLogEntryPath.TYPE_MODIFIED, SVNNodeKind.FILE),
+				path("/trunk/nodered-live/uibuilder/myui/src/index.html", SVNLogEntryPath.TYPE_MODIFIED, SVNNodeKind.FILE),
+				path("/trunk/nodered-live/uibuilder/myui/src/index.js", SVNLogEntryPath.TYPE_ADDED, SVNNodeKind.FILE),
+				path("/trunk/nodered-live/uibuilder/myui/src/index.css", SVNLogEntryPath.TYPE_REPLACED, SVNNodeKind.FILE));
+		assertEquals(4, events.size());
+		assertEvent(events.get(0), ChangeEvent.Type.FLOW_CHANGED, "trunk", "/trunk/nodered-live/flows.json");
+		assertEvent(events.get(1), ChangeEvent.Type.UI_CHANGED, "trunk", "/trunk/nodered-live/uibuilder/myui/src/index.html");
+		assertEvent(events.get(2), ChangeEvent.Type.UI_CHANGED, "trunk", "/trunk/nodered-live/uibuilder/myui/src/index.js");
+		assertEvent(events.get(3), ChangeEvent.Type.UI_CHANGED, "trunk", "/trunk/nodered-live/uibuilder/myui/src/index.css");
+	}
+
+	@Test
+	public void testBranchChanges() {
+		List<ChangeEvent> events = collect(
+				path("/branches/b1/flows.json", SVNLogEntryPath.TYPE_MODIFIED, SVNNodeKind.FILE),
+				path("/branches/b1/uibuilder/myui/src/index.js", SVNLogEntryPath.TYPE_MODIFIED, SVNNodeKind.FILE));
+		assertEquals(2, events.size());
+		assertEvent(events.get(0), ChangeEvent.Type.FLOW_CHANGED, "b1", "/branches/b1/flows.json");
+		assertEvent(events.get(1), ChangeEvent.Type.UI_CHANGED, "b1", "/branches/b1/uibuilder/myui/src/index.js");
+	}
+
+	@Test
+	public void testIgnoredFiles() {
+		List<ChangeEvent> events = collect(
+				// Deleted files are not reported
+				path("/trunk/nodered-live/flows.json", SVNLogEntryPath.TYPE_DELETED, SVNNodeKind.FILE),
+				path("/branches/b1/uibuilder/myui/src/index.html", SVNLogEntryPath.TYPE_DELETED, SVNNodeKind.FILE),
+				// Other NodeRED files
+				path("/trunk/nodered-live/settings.js", SVNLogEntryPath.TYPE_MODIFIED, SVNNodeKind.FILE),
+				path("/trunk/nodered-live/uibuilder/myui/src/other.js", SVNLogEntryPath.TYPE_MODIFIED, SVNNodeKind.FILE),
+				path("/trunk/nodered-live/uibuilder/myui/dist/index.html", SVNLogEntryPath.TYPE_MODIFIED, SVNNodeKind.FILE),
+				path("/branches/b1/lib/flows.json", SVNLogEntryPath.TYPE_MODIFIED, SVNNodeKind.FILE));
+		assertTrue(events.isEmpty());
+	}
+
+	@Test
+	public void testSqlScriptAdded() {
+		List<ChangeEvent> events = collect(
+				path("/trunk/sql/V2__orders.sql", SVNLogEntryPath.TYPE_ADDED, SVNNodeKind.FILE),
+				// Only additions of files are reported
+				path("/trunk/sql/V1__init.sql", SVNLogEntryPath.TYPE_MODIFIED, SVNNodeKind.FILE),
+				path("/trunk/sql/V0__old.sql", SVNLogEntryPath.TYPE_DELETED, SVNNodeKind.FILE),
+				path("/trunk/sql/archive", SVNLogEntryPath.TYPE_ADDED, SVNNodeKind.DIR));
+		assertEquals(1, events.size());
+		assertEvent(events.get(0), ChangeEvent.Type.SQL_SCRIPT_ADDED, null, "/trunk/sql/V2__orders.sql");
+	}
+
+	@Test
+	public void testOutsideWatchedRoots() {
+		List<ChangeEvent> events = collect(
+				path("/trunk/other/flows.json", SVNLogEntryPath.TYPE_MODIFIED, SVNNodeKind.FILE),
+				// Same prefix, different folder
+				path("/trunk/nodered-live2/flows.json", SVNLogEntryPath.TYPE_MODIFIED, SVNNodeKind.FILE),
+				path("/trunk/sqlold/V3__x.sql", SVNLogEntryPath.TYPE_ADDED, SVNNodeKind.FILE),
+				path("/branchesold/b1", SVNLogEntryPath.TYPE_ADDED, SVNNodeKind.DIR),
+				// The watched roots themselves
+				path("/trunk/nodered-live", SVNLogEntryPath.TYPE_MODIFIED, SVNNodeKind.DIR),
+				path("/branches", SVNLogEntryPath.TYPE_MODIFIED, SVNNodeKind.DIR),
+				path("/tags/v1", SVNLogEntryPath.TYPE_ADDED, SVNNodeKind.DIR));
+		assertTrue(events.isEmpty());
+	}
+
+	@Test
+	public void testRevisionAndAuthor() {
+		List<ChangeEvent> events = new ArrayList<>();
+		Map<String, SVNLogEntryPath> paths = new LinkedHashMap<>();
+		SVNLogEntryPath ep = path("/branches/b1/flows.json", SVNLogEntryPath.TYPE_MODIFIED, SVNNodeKind.FILE);
+		paths.put(ep.getPath(), ep);
+		RevisionWatcher.collect(new SVNLogEntry(paths, 42, "tom", new Date(), "msg"), TRUNK, BRANCHES, SQL, events);
+		assertEquals(1, events.size());
+		assertEquals(42, events.get(0).getRevision());
+		assertEquals("tom", events.get(0).getAuthor());
+	}
+
+	private static List<ChangeEvent> collect(SVNLogEntryPath... changed) {
+		Map<String, SVNLogEntryPath> paths = new LinkedHashMap<>();
+		for (SVNLogEntryPath ep : changed) {
+			paths.put(ep.getPath(), ep);
+		}
+		List<ChangeEvent> events = new ArrayList<>();
+		RevisionWatcher.collect(new SVNLogEntry(paths, 7, "agent", new Date(), ""), TRUNK, BRANCHES, SQL, events);
+		return events;
+	}
+
+	private static SVNLogEntryPath path(String path, char type, SVNNodeKind kind) {
+		return new SVNLogEntryPath(path, type, null, -1, kind);
+	}
+
+	private static void assertEvent(ChangeEvent ev, ChangeEvent.Type type, String env, String path) {
+		assertEquals(type, ev.getType());
+		assertEquals(env, ev.getEnv());
+		assertEquals(path, ev.getPath());
+	}
+}
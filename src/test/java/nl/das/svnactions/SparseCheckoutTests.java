@@ -0,0 +1,80 @@
+/*
+ * Copyright © 2022 Dutch Arrow Software - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the Apache Software License 2.0.
+ *
+ * Created 14 Oct 2022.
+ */
+
+
+package nl.das.svnactions;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Properties;
+
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.tmatesoft.svn.core.ISVNDirEntryHandler;
+import org.tmatesoft.svn.core.SVNProperties;
+import org.tmatesoft.svn.core.SVNProperty;
+
+/**
+ * Creates a branch in a sparse work folder and merges the trunk into it. Needs npm (createBranch runs npm install).
+ */
+public class SparseCheckoutTests {
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	@Test
+	public void testMergeIntoSparseWorkFolder() throws Exception {
+		Assume.assumeTrue("npm is not installed", isOnPath("npm"));
+		try (LocalRepo repo = new LocalRepo(this.tmp)) {
+			File trunk = repo.checkout("trunk/nodered-live");
+			LocalRepo.write(trunk, "flows.json", "[{\"id\":\"u1\",\"type\":\"uibuilder\",\"url\":\"myui\"}]");
+			LocalRepo.write(trunk, "package.json", "{\"name\":\"test\",\"version\":\"1.0.0\"}");
+			repo.commit(trunk, "flows.json", "package.json", "uibuilder/myui/src/index.html", "uibuilder/myui/src/index.js",
+					"uibuilder/myui/src/index.css", "lib/other.txt");
+
+			Properties props = repo.props();
+			props.setProperty("workdir", this.tmp.newFolder("work").getAbsolutePath());
+			props.setProperty("checkout.sparse", "true");
+			try (SvnActions actions = new SvnActions(props)) {
+				actions.createBranch("b1");
+				String wd = actions.getWorkdir();
+				assertTrue(Files.exists(Paths.get(wd, "flows.json")));
+				assertTrue(Files.exists(Paths.get(wd, "uibuilder/myui/src/index.html")));
+				assertFalse(Files.exists(Paths.get(wd, "lib/other.txt")));
+
+				LocalRepo.write(trunk, "flows.json", "[{\"id\":\"u1\",\"type\":\"uibuilder\",\"url\":\"myui\"},{\"id\":\"t1\",\"type\":\"tab\"}]");
+				repo.commit(trunk);
+				actions.merge(true, null);
+				actions.commit("merge");
+
+				// The merge info of the branch is inheritable: no non-inheritable (*) ranges
+				SVNProperties branchProps = new SVNProperties();
+				actions.getSession().repository(repo.url("branches/b1")).getDir("", -1, branchProps, (ISVNDirEntryHandler) null);
+				String mergeinfo = branchProps.getStringValue(SVNProperty.MERGE_INFO);
+				assertNotNull(mergeinfo);
+				assertFalse(mergeinfo, mergeinfo.contains("*"));
+				assertTrue(Files.exists(Paths.get(wd, "lib/other.txt")));
+			}
+		}
+	}
+
+	private static boolean isOnPath(String command) {
+		for (String dir : System.getenv().getOrDefault("PATH", "").split(File.pathSeparator)) {
+			if (Files.isExecutable(Paths.get(dir, command)) || Files.isExecutable(Paths.get(dir, command + ".cmd"))) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
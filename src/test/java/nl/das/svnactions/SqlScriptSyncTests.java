@@ -0,0 +1,70 @@
+/*
+ * Copyright © 2022 Dutch Arrow Software - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the Apache Software License 2.0.
+ *
+ * Created 14 Oct 2022.
+ */
+
+
+package nl.das.svnactions;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Syncs against a local (file://) repository
+ */
+public class SqlScriptSyncTests {
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	@Test
+	public void testIncrementalSync() throws Exception {
+		try (LocalRepo repo = new LocalRepo(this.tmp)) {
+			File wc = repo.checkout("trunk/sql");
+			repo.commit(wc, "1_init.sql", "2_data.sql");
+
+			Path mirror = this.tmp.getRoot().toPath().resolve("mirror");
+			try (SvnSession session = new SvnSession(repo.props())) {
+				SqlScriptSync sync = new SqlScriptSync(session, mirror);
+				SqlSyncResult r = sync.sync();
+				assertEquals(Arrays.asList("1_init.sql", "2_data.sql"), r.getScriptsToApply());
+				assertEquals(r.getRevision(), sync.getRevision());
+				// The scripts get the default permissions, not those of a private temporary file
+				if (Files.getFileAttributeView(mirror, PosixFileAttributeView.class) != null) {
+					Path plain = Files.createFile(this.tmp.getRoot().toPath().resolve("plain"));
+					assertEquals(Files.getPosixFilePermissions(plain), Files.getPosixFilePermissions(mirror.resolve("1_init.sql")));
+				}
+
+				// Nothing new
+				assertTrue(sync.sync().getScriptsToApply().isEmpty());
+
+				LocalRepo.write(wc, "2_data.sql", "insert;");
+				repo.commit(wc, "10_more.sql", "v2/3_x.sql");
+				repo.remove(wc, "1_init.sql");
+				repo.commit(wc);
+
+				r = sync.sync();
+				assertEquals(Arrays.asList("2_data.sql", "10_more.sql", "v2/3_x.sql"), r.getScriptsToApply());
+				assertEquals(Collections.singletonList("2_data.sql"), r.getModified());
+				assertEquals(Collections.singletonList("1_init.sql"), r.getDeleted());
+				assertFalse(Files.exists(mirror.resolve("1_init.sql")));
+				assertEquals("insert;", new String(Files.readAllBytes(mirror.resolve("2_data.sql"))));
+				assertTrue(Files.exists(mirror.resolve("v2/3_x.sql")));
+			}
+		}
+	}
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright © 2022 Dutch Arrow Software - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the Apache Software License 2.0.
+ *
+ * Created 14 Oct 2022.
+ */
+
+
+package nl.das.svnactions;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.Properties;
+
+import org.junit.Test;
+import org.tmatesoft.svn.core.wc2.SvnOperationFactory;
+
+public class SvnSessionTests {
+
+	@Test
+	public void testFactoriesOfEndedThreadsAreDisposed() throws Exception {
+		Properties props = new Properties();
+		props.setProperty("repohost", "file://");
+		props.setProperty("path.trunk", "/repo/trunk/nodered-live");
+		props.setProperty("path.branches", "/repo/branches");
+		props.setProperty("path.sql", "/repo/trunk/sql");
+		props.setProperty("username", "");
+		props.setProperty("password", "");
+		try (SvnSession session = new SvnSession(props)) {
+			for (int i = 0; i < 5; i++) {
+				Thread t = new Thread(session::factory);
+				t.start();
+				t.join();
+			}
+			SvnOperationFactory f = session.factory();
+			assertEquals(1, session.getFactoryCount());
+			assertSame(f, session.factory());
+		}
+	}
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright © 2022 Dutch Arrow Software - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the Apache Software License 2.0.
+ *
+ * Created 14 Oct 2022.
+ */
+
+
+package nl.das.svnactions;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+import java.util.stream.Stream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ */
+public class TrashReaperTests {
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	@Test
+	public void testDiscardAndResume() throws IOException, InterruptedException {
+		Path workdir = this.tmp.newFolder("wc").toPath();
+		for (int i = 0; i < 20; i++) {
+			Path dir = Files.createDirectories(workdir.resolve("node_modules/m" + i + "/lib"));
+			for (int j = 0; j < 20; j++) {
+				Files.write(dir.resolve("f" + j + ".js"), new byte[] {1});
+			}
+		}
+		// Trash left behind by an earlier run
+		Path left = Files.createDirectories(TrashReaper.getTrash(workdir).resolve("wc-0-0/sub"));
+		Files.write(left.resolve("x"), new byte[] {1});
+
+		try (TrashReaper reaper = new TrashReaper(new Properties())) {
+			reaper.discard(workdir);
+			assertFalse(Files.exists(workdir));
+			Path trash = TrashReaper.getTrash(workdir);
+			for (int i = 0; (i < 100) && (count(trash) > 0); i++) {
+				Thread.sleep(50);
+			}
+			assertTrue(count(trash) == 0);
+		}
+	}
+
+	private static long count(Path dir) throws IOException {
+		try (Stream<Path> entries = Files.list(dir)) {
+			return entries.count();
+		}
+	}
+}
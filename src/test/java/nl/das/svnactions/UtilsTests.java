@@ -0,0 +1,85 @@
+/*
+ * Copyright © 2022 Dutch Arrow Software - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the Apache Software License 2.0.
+ *
+ * Created 14 Oct 2022.
+ */
+
+
+package nl.das.svnactions;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ *
+ */
+public class UtilsTests {
+
+	@Test
+	public void testGenerateGUID() {
+		String id = Utils.generateGUID();
+		assertEquals(16, id.length());
+		assertTrue(id.matches("[0-9a-f]{16}"));
+	}
+
+	@Test
+	public void testGenerateBulk() {
+		List<String> ids = Utils.generate(1000);
+		assertEquals(1000, ids.size());
+		for (String id : ids) {
+			// The thread's character buffer must not leak into the returned ids
+			assertTrue(id, id.matches("[0-9a-f]{16}"));
+		}
+		assertFalse(ids.get(0).equals(ids.get(1)));
+	}
+
+	@Test
+	public void testGenerateAvoidsFlowIds() {
+		String flow = "[{\"id\":\"a1b2c3d4e5f60708\",\"type\":\"tab\"},{\"id\":\"0102030405060708\",\"type\":\"inject\",\"z\":\"a1b2c3d4e5f60708\"}]";
+		assertEquals(2, Utils.getNodeIds(flow).size());
+		List<String> ids = Utils.generate(100, flow);
+		assertEquals(100, ids.size());
+		assertFalse(ids.contains("a1b2c3d4e5f60708"));
+	}
+
+	@Test
+	public void testBytesToHex() {
+		byte[] bytes = {0x00, 0x7F, (byte) 0x80, (byte) 0xFF};
+		assertEquals("007F80FF", Utils.bytesToHex(bytes));
+		ByteBuffer bb = ByteBuffer.wrap(bytes, 1, 2);
+		assertEquals("7F80", Utils.bytesToHex(bb));
+		assertEquals(1, bb.position());
+	}
+
+	@Test
+	public void testReaderAndTransfer() throws IOException {
+		String text = "[{\"id\":\"a1\",\"name\":\"\u00e9t\u00e9 \u20ac\"}]";
+		ByteBuffer bb = ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8)).asReadOnlyBuffer();
+		StringBuilder sb = new StringBuilder();
+		try (Reader rdr = Utils.reader(bb)) {
+			char[] cbuf = new char[3];
+			int n;
+			while ((n = rdr.read(cbuf)) != -1) {
+				sb.append(cbuf, 0, n);
+			}
+		}
+		assertEquals(text, sb.toString());
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		assertEquals(bb.remaining(), Utils.transfer(bb, Channels.newChannel(out)));
+		assertEquals(text, new String(out.toByteArray(), StandardCharsets.UTF_8));
+		assertEquals(0, bb.position());
+	}
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright © 2022 Dutch Arrow Software - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the Apache Software License 2.0.
+ *
+ * Created 14 Oct 2022.
+ */
+
+
+package nl.das.svnactions;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Properties;
+import java.util.stream.Stream;
+
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class WorkFolderTests {
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	@Test
+	public void testUpdateFlowKeepsPermissions() throws Exception {
+		Path wd = this.tmp.newFolder("work").toPath();
+		Assume.assumeTrue("no POSIX permissions", Files.getFileAttributeView(wd, PosixFileAttributeView.class) != null);
+		Path flows = wd.resolve("flows.json");
+		Files.write(flows, "[]".getBytes(StandardCharsets.UTF_8));
+		Files.setPosixFilePermissions(flows, PosixFilePermissions.fromString("rw-rw-r--"));
+
+		Properties props = new Properties();
+		props.setProperty("repohost", "file://");
+		props.setProperty("path.trunk", "/repo/trunk/nodered-live");
+		props.setProperty("path.branches", "/repo/branches");
+		props.setProperty("path.sql", "/repo/trunk/sql");
+		props.setProperty("username", "");
+		props.setProperty("password", "");
+		props.setProperty("workdir", wd.toString());
+		try (SvnActions actions = new SvnActions(props)) {
+			actions.updateFlow("[{\"id\":\"t1\",\"type\":\"tab\"}]");
+		}
+		assertEquals("[{\"id\":\"t1\",\"type\":\"tab\"}]", new String(Files.readAllBytes(flows), StandardCharsets.UTF_8));
+		assertEquals("rw-rw-r--", PosixFilePermissions.toString(Files.getPosixFilePermissions(flows)));
+		try (Stream<Path> files = Files.list(wd)) {
+			assertEquals(1, files.count());
+		}
+	}
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright © 2022 Dutch Arrow Software - All Rights Reserved
+ * You may use, distribute and modify this code under the
+ * terms of the Apache Software License 2.0.
+ *
+ * Created 14 Oct 2022.
+ */
+
+
+package nl.das.svnactions.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Properties;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import nl.das.svnactions.LocalRepo;
+import nl.das.svnactions.SvnSession;
+
+/**
+ * Serves a local (file://) repository with a branch b1 that was copied from the trunk in r3 and changed its flow in r4
+ */
+public class SvnHttpServerTests {
+	private static final String TRUNK_FLOW = "[{\"id\":\"u1\",\"type\":\"uibuilder\",\"url\":\"myui\"}]";
+	private static final String BRANCH_FLOW = "[{\"id\":\"u1\",\"type\":\"uibuilder\",\"url\":\"myui\"},{\"id\":\"t1\",\"type\":\"tab\"}]";
+
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	private LocalRepo repo;
+	private SvnSession session;
+	private SvnHttpServer server;
+
+	@Before
+	public void setUp() throws Exception {
+		this.repo = new LocalRepo(this.tmp);
+		File trunk = this.repo.checkout("trunk/nodered-live");
+		LocalRepo.write(trunk, "flows.json", TRUNK_FLOW);
+		this.repo.commit(trunk, "flows.json", "uibuilder/myui/src/index.html", "uibuilder/myui/src/index.js", "uibuilder/myui/src/index.css");
+		this.repo.copy("trunk/nodered-live", "branches/b1");
+		File b1 = this.repo.checkout("branches/b1");
+		LocalRepo.write(b1, "flows.json", BRANCH_FLOW);
+		this.repo.commit(b1);
+
+		Properties props = this.repo.props();
+		props.setProperty("port", "0");
+		this.session = new SvnSession(props);
+		this.server = new SvnHttpServer(this.session);
+		this.server.start();
+	}
+
+	@After
+	public void tearDown() {
+		this.server.close();
+		this.session.close();
+		this.repo.close();
+	}
+
+	@Test
+	public void testBranchUiUnchangedSinceCopy() throws Exception {
+		HttpURLConnection c = get("/branches/b1/ui/html", null);
+		assertEquals(200, c.getResponseCode());
+		assertEquals("uibuilder/myui/src/index.html", body(c));
+		// The file was last changed in the trunk
+		assertTrue(c.getHeaderField("ETag"), c.getHeaderField("ETag").startsWith("\"2-"));
+		assertEquals("no-cache", c.getHeaderField("Cache-Control"));
+	}
+
+	@Test
+	public void testBranchFlowAtCopyRevision() throws Exception {
+		HttpURLConnection c = get("/branches/b1/flow?rev=3", null);
+		assertEquals(200, c.getResponseCode());
+		assertEquals(TRUNK_FLOW, body(c));
+		String etag = c.getHeaderField("ETag");
+		assertTrue(etag, etag.startsWith("\"2-"));
+
+		assertEquals(304, get("/branches/b1/flow?rev=3", etag).getResponseCode());
+
+		c = get("/branches/b1/flow", null);
+		assertEquals(200, c.getResponseCode());
+		assertEquals(BRANCH_FLOW, body(c));
+		assertTrue(c.getHeaderField("ETag").startsWith("\"4-"));
+	}
+
+	@Test
+	public void testTrunkFlow() throws Exception {
+		HttpURLConnection c = get("/trunk/flow", null);
+		assertEquals(200, c.getResponseCode());
+		assertEquals(TRUNK_FLOW, body(c));
+		assertEquals(404, get("/branches/nope/flow", null).getResponseCode());
+	}
+
+	private HttpURLConnection get(String path, String ifNoneMatch) throws IOException {
+		HttpURLConnection c = (HttpURLConnection) new URL("http://localhost:" + this.server.getAddress().getPort() + path).openConnection();
+		if (ifNoneMatch != null) {
+			c.setRequestProperty("If-None-Match", ifNoneMatch);
+		}
+		return c;
+	}
+
+	private static String body(HttpURLConnection c) throws IOException {
+		try (InputStream in = c.getInputStream()) {
+			return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+		}
+	}
+}